@@ -0,0 +1,211 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * <p>Switches the torch on when the scene gets too dark to decode and off again when it is bright
+ * enough, see {@link BarcodeScannerView#setAutoTorch(AutoTorch)}.</p>
+ *
+ * <p>The brightness of a frame is the median of a luminance histogram sampled at a grid of about
+ * {@value #SAMPLES_PER_SIDE} x {@value #SAMPLES_PER_SIDE} points inside the framing rect. To avoid
+ * flicker the torch is switched on below the dark threshold and only switched off above the much
+ * higher bright threshold, each after several frames in a row, and not until exposure settled
+ * after the last switch. Since the torch alone can light up a close label well enough to look
+ * bright, it is also kept on until the scene gets clearly brighter than it was right after the torch
+ * was switched on.</p>
+ *
+ * <p>Frames are measured and the torch is switched on the thread that delivers preview frames,
+ * i.e. the camera thread, under {@link CameraPreview#PARAMETERS_LOCK}. Thread-safe.</p>
+ */
+public class AutoTorch {
+    private static final String TAG = "AutoTorch";
+
+    public static final int DEFAULT_DARK_LUMINANCE = 40;
+    public static final int DEFAULT_BRIGHT_LUMINANCE = 140;
+    public static final int DEFAULT_SWITCH_FRAMES = 10;
+
+    private static final int SAMPLES_PER_SIDE = 32;
+    // Time for auto exposure to adapt after the torch was switched
+    private static final long SETTLE_MILLIS = 1000;
+    // How much brighter than with just the torch the scene must get before it is switched off
+    private static final int AMBIENT_MARGIN = 32;
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    private final int mDarkLuminance;
+    private final int mBrightLuminance;
+    private final int mSwitchFrames;
+    private final int[] mHistogram = new int[256];
+    private final Rect mFullFrame = new Rect();
+
+    private boolean mTorchOn;
+    private int mFramesBeyondThreshold;
+    private long mLastSwitchTime = NEVER;
+    private int mTorchLuminance = -1;
+    private int mLastLuminance = -1;
+    private long mSwitchOnCount;
+    private long mSwitchOffCount;
+
+    public AutoTorch() {
+        this(DEFAULT_DARK_LUMINANCE, DEFAULT_BRIGHT_LUMINANCE, DEFAULT_SWITCH_FRAMES);
+    }
+
+    /**
+     * @param darkLuminance the torch is switched on when the median luminance stays below this
+     * @param brightLuminance the torch is switched off when the median luminance stays above this
+     * @param switchFrames number of frames in a row beyond a threshold before the torch is switched
+     */
+    public AutoTorch(int darkLuminance, int brightLuminance, int switchFrames) {
+        if (darkLuminance < 0 || brightLuminance > 255 || darkLuminance >= brightLuminance) {
+            throw new IllegalArgumentException("need 0 <= darkLuminance < brightLuminance <= 255");
+        }
+        if (switchFrames < 1) {
+            throw new IllegalArgumentException("switchFrames must be at least 1");
+        }
+        mDarkLuminance = darkLuminance;
+        mBrightLuminance = brightLuminance;
+        mSwitchFrames = switchFrames;
+    }
+
+    /**
+     * Measures a frame and switches the torch if needed. Called on the camera thread.
+     */
+    public synchronized void onPreviewFrame(byte[] data, Camera camera, CameraGeometry geometry) {
+        Rect area = geometry.getSensorFramingRect();
+        if (area == null || area.isEmpty()) {
+            // Until the view finder is laid out, meter the whole frame
+            area = mFullFrame;
+            if (area.right != geometry.getPreviewWidth() || area.bottom != geometry.getPreviewHeight()) {
+                area.set(0, 0, geometry.getPreviewWidth(), geometry.getPreviewHeight());
+            }
+        }
+        mLastLuminance = estimateMedianLuminance(data, geometry.getPreviewWidth(), area, mHistogram);
+        if (!update(mLastLuminance, SystemClock.elapsedRealtime())) {
+            return;
+        }
+        if (!setTorch(camera, mTorchOn)) {
+            // No torch on this camera, or it failed; stay in the state the camera is in
+            mTorchOn = !mTorchOn;
+        } else if (mTorchOn) {
+            mSwitchOnCount++;
+        } else {
+            mSwitchOffCount++;
+        }
+    }
+
+    /**
+     * @return true if the torch should be switched to {@link #isTorchOn()}
+     */
+    synchronized boolean update(int luminance, long nowMillis) {
+        long sinceSwitch = nowMillis - mLastSwitchTime;
+        if (sinceSwitch < SETTLE_MILLIS) {
+            mFramesBeyondThreshold = 0;
+            return false;
+        }
+        if (mTorchOn && mTorchLuminance < 0) {
+            mTorchLuminance = luminance;
+        }
+        boolean beyondThreshold = mTorchOn
+                ? luminance > Math.max(mBrightLuminance, mTorchLuminance + AMBIENT_MARGIN)
+                : luminance < mDarkLuminance;
+        if (!beyondThreshold) {
+            mFramesBeyondThreshold = 0;
+            return false;
+        }
+        if (++mFramesBeyondThreshold < mSwitchFrames) {
+            return false;
+        }
+        mFramesBeyondThreshold = 0;
+        mTorchOn = !mTorchOn;
+        mTorchLuminance = -1;
+        mLastSwitchTime = nowMillis;
+        return true;
+    }
+
+    /**
+     * @param histogram 256 bins, overwritten with the histogram of the sampled points
+     * @return median luminance of a grid of points inside {@code area}, from 0 to 255
+     */
+    public static int estimateMedianLuminance(byte[] data, int dataWidth, Rect area, int[] histogram) {
+        int stepX = Math.max(1, area.width() / SAMPLES_PER_SIDE);
+        int stepY = Math.max(1, area.height() / SAMPLES_PER_SIDE);
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = 0;
+        }
+        int count = 0;
+        for (int y = area.top; y < area.bottom; y += stepY) {
+            int offset = y * dataWidth;
+            for (int x = area.left; x < area.right; x += stepX) {
+                histogram[data[offset + x] & 0xFF]++;
+                count++;
+            }
+        }
+        int half = (count + 1) / 2;
+        int sum = 0;
+        for (int luminance = 0; luminance < histogram.length; luminance++) {
+            sum += histogram[luminance];
+            if (sum >= half) {
+                return luminance;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean setTorch(Camera camera, boolean on) {
+        String flashMode = on ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF;
+        try {
+            synchronized (CameraPreview.PARAMETERS_LOCK) {
+                Camera.Parameters parameters = camera.getParameters();
+                List<String> flashModes = parameters.getSupportedFlashModes();
+                if (flashModes == null || !flashModes.contains(flashMode)) {
+                    return false;
+                }
+                if (!flashMode.equals(parameters.getFlashMode())) {
+                    parameters.setFlashMode(flashMode);
+                    camera.setParameters(parameters);
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, e.toString(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the torch was last switched on by this instance
+     */
+    public synchronized boolean isTorchOn() {
+        return mTorchOn;
+    }
+
+    /**
+     * @return median luminance of the last frame, or -1 if none was measured yet
+     */
+    public synchronized int getLastLuminance() {
+        return mLastLuminance;
+    }
+
+    public synchronized long getSwitchOnCount() {
+        return mSwitchOnCount;
+    }
+
+    public synchronized long getSwitchOffCount() {
+        return mSwitchOffCount;
+    }
+
+    /**
+     * Forgets the torch state, e.g. when the camera was released and the torch went off with it.
+     */
+    public synchronized void reset() {
+        mTorchOn = false;
+        mFramesBeyondThreshold = 0;
+        mLastSwitchTime = NEVER;
+        mTorchLuminance = -1;
+        mLastLuminance = -1;
+    }
+}
@@ -1,11 +1,16 @@
 package me.dm7.barcodescanner.core;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,14 +21,62 @@ import android.view.animation.TranslateAnimation;
 import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 public abstract class BarcodeScannerView extends FrameLayout implements Camera.PreviewCallback {
+    private static final String TAG = "BarcodeScannerView";
+
+    public interface OnFrameDecodedListener {
+        /**
+         * Called on the decode thread after every decoded frame, e.g. to log per-frame decode
+         * times. Must return quickly, as the next frame waits for it.
+         *
+         * @param decodeTimeNanos time the frame decoder spent on the frame
+         * @param found true if a code was found, whether or not it is delivered
+         */
+        void onFrameDecoded(long decodeTimeNanos, boolean found);
+    }
 
     private static final int SCANNER_LINE_HEIGHT = 9;
+    public static final long DEFAULT_DEBOUNCE_WINDOW_MILLIS = 1500;
+    private static final int DEBOUNCE_FILTER_CAPACITY = 64;
     private Camera mCamera;
     private CameraPreview mPreview;
     private IViewFinder mViewFinderView;
-    private Rect mFramingRectInPreview;
+    private volatile FramingRectMapping mFramingRectMapping;
     private CameraHandlerThread mCameraHandlerThread;
+    private PreviewBufferPool mBufferPool;
+    private DecodeThreadPool mDecodeThreadPool;
+    private int mDecodeThreadCount = 1;
+    private long mFrameSequence;
+    private volatile CameraGeometry mCameraGeometry;
+    private final OrientationCache mOrientationCache;
+    private final AtomicBoolean mScanning = new AtomicBoolean(true);
+    private final AtomicLong mDecodedFrameCount = new AtomicLong();
+    private final AtomicLong mDroppedFrameCount = new AtomicLong();
+    private final AtomicLong mDecodeTimeNanos = new AtomicLong();
+    private volatile OnFrameDecodedListener mOnFrameDecodedListener;
+    private volatile boolean mContinuousScanning;
+    private volatile ResultFilter mDebounceFilter =
+            new ResultFilter(DEBOUNCE_FILTER_CAPACITY, DEFAULT_DEBOUNCE_WINDOW_MILLIS);
+    private volatile ResultFilter mResultFilter;
+    private volatile RegionOfInterestTracker mRegionOfInterestTracker;
+    private volatile SharpnessFilter mSharpnessFilter;
+    private volatile AutoTorch mAutoTorch;
+    private PreviewSizePolicy mPreviewSizePolicy;
+    private final FocusController mFocusController = new FocusController();
+    private volatile long mPreviewStartTime;
+    private final AtomicBoolean mFirstScanPending = new AtomicBoolean();
+    private volatile long mTimeToFirstScanMillis = -1;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private long mKeepWarmMillis;
+    private boolean mCameraWarm;
+    private int mCameraId;
+    private final AtomicLong mWarmResumeCount = new AtomicLong();
+    private volatile long mCameraStartTime;
+    private final AtomicBoolean mFirstFramePending = new AtomicBoolean();
+    private volatile long mResumeToFirstFrameMillis = -1;
     private Boolean mFlashState;
     private boolean mAutofocusState = true;
     private boolean showScannerLine = false;
@@ -32,16 +85,44 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
 
     public BarcodeScannerView(Context context) {
         super(context);
+        mOrientationCache = new OrientationCache(context);
     }
 
     public BarcodeScannerView(Context context, AttributeSet attributeSet) {
         super(context, attributeSet);
+        mOrientationCache = new OrientationCache(context);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mOrientationCache.startListening();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mOrientationCache.stopListening();
+        // Another view, e.g. of a recreated activity, may want to open the camera
+        if (mCameraWarm) {
+            releaseCamera();
+        }
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        mOrientationCache.refresh();
     }
 
     public final void setupLayout(Camera camera) {
         removeAllViews();
 
         mPreview = new CameraPreview(getContext(), camera, this);
+        mPreview.setPreviewBufferPool(mBufferPool);
+        mPreview.setOrientationCache(mOrientationCache);
+        mPreview.setFocusController(mFocusController);
+        mPreview.setOnPreviewStartedListener(mPreviewStartedListener);
         RelativeLayout relativeLayout = new RelativeLayout(getContext());
         relativeLayout.setGravity(Gravity.CENTER);
         relativeLayout.setBackgroundColor(Color.BLACK);
@@ -49,6 +130,17 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
         addView(relativeLayout);
 
         mViewFinderView = createViewFinderView(getContext());
+        mPreview.setPreviewSizePolicy(mPreviewSizePolicy, mViewFinderView);
+        mFramingRectMapping = null;
+        if (mViewFinderView instanceof MyViewFinderView) {
+            ((MyViewFinderView) mViewFinderView).setOnFramingRectChangedListener(
+                    new MyViewFinderView.OnFramingRectChangedListener() {
+                @Override
+                public void onFramingRectChanged(Rect framingRect) {
+                    invalidateFramingRect();
+                }
+            });
+        }
         if (mViewFinderView instanceof View) {
             addView((View) mViewFinderView);
 
@@ -132,15 +224,30 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
     }
 
     public void startCamera(int cameraId) {
+        mCameraStartTime = SystemClock.elapsedRealtime();
+        mFirstFramePending.set(true);
+        if (mCameraWarm) {
+            if (cameraId == mCameraId) {
+                resumeWarmCamera();
+                return;
+            }
+            releaseCamera();
+        }
+        mCameraId = cameraId;
+        mOrientationCache.setCameraId(cameraId);
         if (mCameraHandlerThread == null) {
             mCameraHandlerThread = new CameraHandlerThread(this);
         }
+        if (mDecodeThreadPool == null) {
+            mDecodeThreadPool = new DecodeThreadPool(this, mDecodeThreadCount);
+        }
         mCameraHandlerThread.startCamera(cameraId);
     }
 
     public void setupCameraPreview(Camera camera) {
         mCamera = camera;
         if (mCamera != null) {
+            mScanning.set(true);
             setupLayout(mCamera);
             mViewFinderView.setupViewFinder();
             if (mFlashState != null) {
@@ -154,17 +261,118 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
         startCamera(-1);
     }
 
+    /**
+     * Stops the camera. With a keep-warm period set, only the preview is stopped and the camera
+     * is released once the period has passed without {@link #startCamera(int)} being called
+     * again, see {@link #setKeepWarmMillis(long)}.
+     */
     public void stopCamera() {
+        if (mCameraWarm) {
+            return;
+        }
+        if (mKeepWarmMillis > 0 && mCamera != null) {
+            keepCameraWarm();
+        } else {
+            releaseCamera();
+        }
+    }
+
+    /**
+     * Releases the camera right away, also when it is kept warm.
+     */
+    public void releaseCamera() {
+        mMainHandler.removeCallbacks(mReleaseWarmCamera);
+        mCameraWarm = false;
         if (mCamera != null) {
             mPreview.stopCameraPreview();
             mPreview.setCamera(null, null);
             mCamera.release();
             mCamera = null;
         }
+        resetFrameState();
         if (mCameraHandlerThread != null) {
             mCameraHandlerThread.quit();
             mCameraHandlerThread = null;
         }
+        quitDecodeThreads();
+    }
+
+    private void quitDecodeThreads() {
+        if (mDecodeThreadPool != null) {
+            mDecodeThreadPool.quit();
+            mDecodeThreadPool = null;
+        }
+    }
+
+    /**
+     * Only the camera and its handler thread stay around while warm. Stopping the preview also
+     * stops focusing, and the decode threads and per-stream state go away as if the camera was
+     * released.
+     */
+    private void keepCameraWarm() {
+        mCameraWarm = true;
+        mPreview.stopCameraPreview();
+        switchFlashOff();
+        quitDecodeThreads();
+        resetFrameState();
+        mMainHandler.postDelayed(mReleaseWarmCamera, mKeepWarmMillis);
+    }
+
+    private void resumeWarmCamera() {
+        mMainHandler.removeCallbacks(mReleaseWarmCamera);
+        mCameraWarm = false;
+        mWarmResumeCount.incrementAndGet();
+        // The screen may have rotated while the camera was warm
+        mOrientationCache.setCameraId(mCameraId);
+        mOrientationCache.refresh();
+        if (mDecodeThreadPool == null) {
+            mDecodeThreadPool = new DecodeThreadPool(this, mDecodeThreadCount);
+        }
+        mScanning.set(true);
+        mPreview.keepCameraParameters();
+        mPreview.restartCameraPreview();
+        if (mFlashState != null) {
+            setFlash(mFlashState);
+        }
+    }
+
+    private final Runnable mReleaseWarmCamera = new Runnable() {
+        @Override
+        public void run() {
+            releaseCamera();
+        }
+    };
+
+    private void switchFlashOff() {
+        try {
+            if (CameraUtils.isFlashSupported(mCamera)) {
+                synchronized (CameraPreview.PARAMETERS_LOCK) {
+                    Camera.Parameters parameters = mCamera.getParameters();
+                    if (!Camera.Parameters.FLASH_MODE_OFF.equals(parameters.getFlashMode())) {
+                        parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+                        mCamera.setParameters(parameters);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, e.toString(), e);
+        }
+    }
+
+    private void resetFrameState() {
+        mCameraGeometry = null;
+        RegionOfInterestTracker tracker = mRegionOfInterestTracker;
+        if (tracker != null) {
+            tracker.reset();
+        }
+        SharpnessFilter sharpnessFilter = mSharpnessFilter;
+        if (sharpnessFilter != null) {
+            sharpnessFilter.reset();
+        }
+        AutoTorch autoTorch = mAutoTorch;
+        if (autoTorch != null) {
+            autoTorch.reset();
+        }
     }
 
     public void stopCameraPreview() {
@@ -174,16 +382,492 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
     }
 
     protected void resumeCameraPreview() {
+        mScanning.set(true);
         if (mPreview != null) {
             mPreview.showCameraPreview();
         }
     }
 
-    public synchronized Rect getFramingRectInPreview(int previewWidth, int previewHeight) {
-        if (mFramingRectInPreview == null) {
-            Rect framingRect = mViewFinderView.getFramingRect();
-            int viewFinderViewWidth = mViewFinderView.getWidth();
-            int viewFinderViewHeight = mViewFinderView.getHeight();
+    /**
+     * Enables buffered frame mode with a ring of {@code count} pre-allocated preview buffers.
+     * Pass 0 to go back to one-shot preview callbacks. A running preview is briefly stopped and
+     * restarted with the new pool, so that no frames are delivered in buffers of the old one.
+     */
+    public void setPreviewBufferCount(int count) {
+        mBufferPool = count > 0 ? new PreviewBufferPool(count) : null;
+        if (mPreview != null) {
+            mPreview.setPreviewBufferPool(mBufferPool);
+        }
+    }
+
+    /**
+     * Picks the preview size with {@code policy}, e.g. a {@link DecodeCostPreviewSizePolicy},
+     * instead of the size closest to the view size. Pass null to go back to the default. Takes
+     * effect when the preview is (re)started.
+     */
+    public void setPreviewSizePolicy(PreviewSizePolicy policy) {
+        mPreviewSizePolicy = policy;
+        if (mPreview != null) {
+            mPreview.setPreviewSizePolicy(policy, mViewFinderView);
+        }
+    }
+
+    public PreviewSizePolicy getPreviewSizePolicy() {
+        return mPreviewSizePolicy;
+    }
+
+    /**
+     * @return the pool used in buffered frame mode, or null when one-shot callbacks are used
+     */
+    public PreviewBufferPool getPreviewBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Decodes up to {@code count} preview frames in parallel, each on its own thread with its own
+     * {@link FrameDecoder}. Results are still delivered in frame order. In buffered frame mode use
+     * at least {@code count + 2} preview buffers to keep every thread busy. Takes effect the next
+     * time the camera is started.
+     */
+    public void setDecodeThreadCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1");
+        }
+        mDecodeThreadCount = count;
+    }
+
+    public int getDecodeThreadCount() {
+        return mDecodeThreadCount;
+    }
+
+    public long getDecodedFrameCount() {
+        return mDecodedFrameCount.get();
+    }
+
+    /**
+     * @return average time spent decoding a single frame, in nanoseconds
+     */
+    public long getAverageDecodeTimeNanos() {
+        long decodedFrameCount = mDecodedFrameCount.get();
+        return decodedFrameCount == 0 ? 0 : mDecodeTimeNanos.get() / decodedFrameCount;
+    }
+
+    /**
+     * Reports the decode time of every frame, where {@link #getAverageDecodeTimeNanos()} only
+     * gives the mean. Pass null to stop.
+     */
+    public void setOnFrameDecodedListener(OnFrameDecodedListener listener) {
+        mOnFrameDecodedListener = listener;
+    }
+
+    /**
+     * @return number of frames that were replaced by a newer frame before they could be decoded
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrameCount.get();
+    }
+
+    private final CameraPreview.OnPreviewStartedListener mPreviewStartedListener =
+            new CameraPreview.OnPreviewStartedListener() {
+        @Override
+        public void onPreviewStarted(CameraPreview preview) {
+            updateCameraGeometry(preview);
+        }
+    };
+
+    private void updateCameraGeometry(CameraPreview preview) {
+        int width = preview.getPreviewWidth();
+        int height = preview.getPreviewHeight();
+        int frameRotation = mOrientationCache.getFrameRotation();
+        Rect framingRect = getFramingRectInPreview(
+                RotationUtils.getRotatedWidth(width, height, frameRotation),
+                RotationUtils.getRotatedHeight(width, height, frameRotation));
+        mCameraGeometry = new CameraGeometry(width, height, preview.getPreviewFormat(),
+                preview.getPreviewDisplayOrientation(), mOrientationCache.getCameraFacing(),
+                frameRotation, framingRect);
+        updateFocusArea(mCameraGeometry);
+        mPreviewStartTime = SystemClock.elapsedRealtime();
+        mFirstScanPending.set(true);
+    }
+
+    private void updateFocusArea(CameraGeometry geometry) {
+        mFocusController.setFocusArea(geometry.getSensorFramingRect(),
+                geometry.getPreviewWidth(), geometry.getPreviewHeight());
+    }
+
+    /**
+     * @return focus controller of this view, which keeps the framing rect in focus
+     */
+    public FocusController getFocusController() {
+        return mFocusController;
+    }
+
+    /**
+     * @return time from the last start of the preview to the first result after it, in
+     * milliseconds, or -1 if there was none yet
+     */
+    public long getTimeToFirstScanMillis() {
+        return mTimeToFirstScanMillis;
+    }
+
+    /**
+     * Keeps the camera open for {@code millis} after {@link #stopCamera()}, with only the preview
+     * stopped, so that calling {@link #startCamera(int)} again within that time, e.g. when the
+     * activity is paused and resumed, skips opening and setting up the camera. Pass 0 to release
+     * the camera right away, which is the default.
+     */
+    public void setKeepWarmMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        mKeepWarmMillis = millis;
+    }
+
+    public long getKeepWarmMillis() {
+        return mKeepWarmMillis;
+    }
+
+    /**
+     * @return time from the last call to {@link #startCamera(int)} to the first preview frame
+     * after it, in milliseconds, or -1 if there was none yet
+     */
+    public long getResumeToFirstFrameMillis() {
+        return mResumeToFirstFrameMillis;
+    }
+
+    /**
+     * @return number of times {@link #startCamera(int)} reused a camera that was kept warm
+     */
+    public long getWarmResumeCount() {
+        return mWarmResumeCount.get();
+    }
+
+    /**
+     * @return cached screen and camera orientation, safe to read from any thread
+     */
+    public OrientationCache getOrientationCache() {
+        return mOrientationCache;
+    }
+
+    /**
+     * @return geometry snapshot of the running preview, or null if the preview has not started
+     */
+    public CameraGeometry getCameraGeometry() {
+        return mCameraGeometry;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        PreviewBufferPool bufferPool = mBufferPool;
+        PreviewFrame frame = bufferPool != null ? bufferPool.onFrame(data) : null;
+        if (data == null) {
+            if (bufferPool == null && mScanning.get()) {
+                requestNextFrame(camera);
+            }
+            return;
+        }
+        if (mFirstFramePending.compareAndSet(true, false)) {
+            mResumeToFirstFrameMillis = SystemClock.elapsedRealtime() - mCameraStartTime;
+        }
+
+        DecodeThreadPool decodeThreadPool = mDecodeThreadPool;
+        CameraGeometry geometry = mCameraGeometry;
+        AutoTorch autoTorch = mAutoTorch;
+        if (autoTorch != null && geometry != null) {
+            autoTorch.onPreviewFrame(data, camera, geometry);
+        }
+        if (decodeThreadPool == null || geometry == null || !mScanning.get()) {
+            releaseFrame(data);
+            // Once scanning stopped, resumeCameraPreview() asks for frames again
+            if (bufferPool == null && mScanning.get()) {
+                requestNextFrame(camera);
+            }
+            return;
+        }
+        if (frame == null) {
+            // One-shot mode, where the camera allocates a new buffer for every frame anyway
+            frame = new PreviewFrame();
+        }
+        // In one-shot mode the next frame is requested by the decode thread that takes this one,
+        // see onFrameTaken(PreviewFrame)
+        decodeThreadPool.submit(frame.set(data, camera, geometry, mFrameSequence++,
+                mFocusController.isFocusMoving()));
+    }
+
+    /**
+     * Called on a decode thread right after it took {@code frame}. In one-shot mode the next frame
+     * is only requested now, so that frames are not delivered, and allocated, faster than they
+     * are decoded.
+     */
+    void onFrameTaken(PreviewFrame frame) {
+        if (mBufferPool == null) {
+            requestNextFrame(frame.getCamera());
+        }
+    }
+
+    private void requestNextFrame(Camera camera) {
+        try {
+            camera.setOneShotPreviewCallback(this);
+        } catch (RuntimeException e) {
+            // The camera was released in the meantime; the next start sets the callback again
+        }
+    }
+
+    /**
+     * <p>In continuous mode results are delivered while the preview keeps running, instead of
+     * stopping the preview after the first result until {@code resumeCameraPreview} is called.</p>
+     *
+     * <p>A code is only reported again once it has been out of sight for the debounce window,
+     * see {@link #setDebounceWindow(long)}, unless a {@link ResultFilter} is set.</p>
+     */
+    public void setContinuousScanning(boolean continuous) {
+        mContinuousScanning = continuous;
+        mDebounceFilter.clear();
+    }
+
+    public boolean isContinuousScanning() {
+        return mContinuousScanning;
+    }
+
+    /**
+     * @param millis how long a code has to be out of sight before it is reported again in
+     *               continuous mode
+     */
+    public void setDebounceWindow(long millis) {
+        mDebounceFilter = new ResultFilter(DEBOUNCE_FILTER_CAPACITY, millis);
+    }
+
+    public long getDebounceWindow() {
+        return mDebounceFilter.getTtlMillis();
+    }
+
+    /**
+     * Suppresses results that the filter has seen within its time-to-live, both in continuous
+     * mode (instead of the debounce window) and when the preview is resumed after each result.
+     * Pass null to deliver every result again.
+     */
+    public void setResultFilter(ResultFilter resultFilter) {
+        mResultFilter = resultFilter;
+    }
+
+    public ResultFilter getResultFilter() {
+        return mResultFilter;
+    }
+
+    /**
+     * Decodes frames in a window around the last code that was found, until the tracker gives
+     * up after a few frames without a result. Speeds up scanning a series of codes that show up
+     * in about the same place, e.g. on a conveyor belt. Pass null to always decode the whole
+     * scan area.
+     */
+    public void setRegionOfInterestTracker(RegionOfInterestTracker tracker) {
+        mRegionOfInterestTracker = tracker;
+    }
+
+    public RegionOfInterestTracker getRegionOfInterestTracker() {
+        return mRegionOfInterestTracker;
+    }
+
+    /**
+     * Skips frames that are too blurry to decode, e.g. while the camera is moved, before the
+     * decoder spends any time on them. Pass null to decode every frame.
+     */
+    public void setSharpnessFilter(SharpnessFilter sharpnessFilter) {
+        mSharpnessFilter = sharpnessFilter;
+    }
+
+    public SharpnessFilter getSharpnessFilter() {
+        return mSharpnessFilter;
+    }
+
+    /**
+     * Switches the torch on and off with the brightness of the framing rect. Switching the flash
+     * by hand with {@link #setFlash(boolean)} or {@link #toggleFlash()} turns this off again. Pass
+     * null to leave the torch alone.
+     */
+    public void setAutoTorch(AutoTorch autoTorch) {
+        mAutoTorch = autoTorch;
+        if (autoTorch != null) {
+            mFlashState = null;
+        }
+    }
+
+    public AutoTorch getAutoTorch() {
+        return mAutoTorch;
+    }
+
+    /**
+     * <p>Creates the decoder used by a single decode thread. Called once per decode thread.</p>
+     * <p>Decoders must call {@link #claimResult(PreviewFrame)} before delivering a result and
+     * drop the result if it returns false. To drop duplicates they call
+     * {@link #isFrameCurrent(PreviewFrame)} and {@link #isDuplicateResult(Object, String)}
+     * first, and {@link #recordResult(Object, String)} for every result they deliver.</p>
+     *
+     * @return a new {@link FrameDecoder} that is not shared with any other thread
+     */
+    protected abstract FrameDecoder createFrameDecoder();
+
+    /**
+     * @return false if the preview stopped scanning, or if frames are decoded in parallel and a
+     * result of a later frame was already claimed, so that results of {@code frame} are stale
+     */
+    protected boolean isFrameCurrent(PreviewFrame frame) {
+        DecodeThreadPool decodeThreadPool = mDecodeThreadPool;
+        if (decodeThreadPool != null && decodeThreadPool.isSuperseded(frame)) {
+            return false;
+        }
+        return mScanning.get();
+    }
+
+    /**
+     * Checks a code against the result filter, or in continuous mode the debounce filter if no
+     * result filter is set. Only codes that were delivered count, see
+     * {@link #recordResult(Object, String)}.
+     *
+     * @return true if the code was seen recently and should not be delivered
+     */
+    protected boolean isDuplicateResult(Object format, String contents) {
+        ResultFilter filter = getActiveResultFilter();
+        return filter != null && contents != null
+                && filter.isDuplicate(format, contents, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Records a code that is delivered after {@link #claimResult(PreviewFrame)} succeeded, so that
+     * later sightings of it are duplicates. Recording it any earlier would suppress a code that
+     * another frame won the claim for, and with it every sighting while it stays in view.
+     */
+    protected void recordResult(Object format, String contents) {
+        ResultFilter filter = getActiveResultFilter();
+        if (filter != null && contents != null) {
+            filter.accept(format, contents, SystemClock.elapsedRealtime());
+        }
+    }
+
+    private ResultFilter getActiveResultFilter() {
+        ResultFilter filter = mResultFilter;
+        if (filter == null && mContinuousScanning) {
+            filter = mDebounceFilter;
+        }
+        return filter;
+    }
+
+    /**
+     * <p>Stops decoding further frames until the preview is resumed. When frames are decoded in
+     * parallel, results are claimed in frame order: a frame loses if a result of a later frame
+     * was claimed first.</p>
+     *
+     * <p>In continuous mode scanning goes on and every result that is not a duplicate is
+     * claimed.</p>
+     *
+     * @return true if the caller should deliver the result
+     */
+    protected boolean claimResult(PreviewFrame frame) {
+        if (!mScanning.get()) {
+            return false;
+        }
+        DecodeThreadPool decodeThreadPool = mDecodeThreadPool;
+        if (decodeThreadPool != null && !decodeThreadPool.claim(frame)) {
+            return false;
+        }
+        if (!mContinuousScanning && !mScanning.compareAndSet(true, false)) {
+            return false;
+        }
+        if (mFirstScanPending.compareAndSet(true, false)) {
+            mTimeToFirstScanMillis = SystemClock.elapsedRealtime() - mPreviewStartTime;
+        }
+        return true;
+    }
+
+    void onFrameDecode(FrameDecoder frameDecoder, FrameMeter frameMeter, PreviewFrame frame) {
+        if (mScanning.get()) {
+            SharpnessFilter sharpnessFilter = mSharpnessFilter;
+            boolean measured = frameMeter.measure(frame);
+            if (measured) {
+                mFocusController.onFrameMeasured(frame.isFocusMoving(),
+                        frameMeter.getSharpness(), frameMeter.getLuminance());
+            }
+            if (sharpnessFilter == null || !measured || sharpnessFilter.accept(frameMeter.getSharpness())) {
+                long start = System.nanoTime();
+                boolean found = frameDecoder.decode(frame);
+                long decodeTimeNanos = System.nanoTime() - start;
+                mDecodeTimeNanos.addAndGet(decodeTimeNanos);
+                mDecodedFrameCount.incrementAndGet();
+                OnFrameDecodedListener listener = mOnFrameDecodedListener;
+                if (listener != null) {
+                    listener.onFrameDecoded(decodeTimeNanos, found);
+                }
+                mFocusController.onFrameDecoded(frame.isFocusMoving(), found);
+            }
+        }
+        if (mScanning.get()) {
+            PreviewBufferPool bufferPool = mBufferPool;
+            if (bufferPool != null) {
+                bufferPool.requeue(frame.getData());
+            }
+        } else {
+            releaseFrame(frame.getData());
+        }
+    }
+
+    void onFrameDropped(PreviewFrame frame) {
+        mDroppedFrameCount.incrementAndGet();
+        PreviewBufferPool bufferPool = mBufferPool;
+        if (bufferPool != null) {
+            bufferPool.requeue(frame.getData());
+        } else if (mScanning.get()) {
+            // No decode thread will take this frame and ask for the next one
+            requestNextFrame(frame.getCamera());
+        }
+    }
+
+    private void releaseFrame(byte[] data) {
+        PreviewBufferPool bufferPool = mBufferPool;
+        if (bufferPool != null) {
+            bufferPool.recycle(data);
+        }
+    }
+
+    /**
+     * Maps the framing rect of the view finder into the coordinates of a preview frame of the
+     * given size. The mapping is cached until the framing rect or the requested size changes, so
+     * repeated calls cost a volatile read and a copy.
+     *
+     * @return a copy of the mapped rect, or null if the view finder has not been laid out yet
+     */
+    public Rect getFramingRectInPreview(int previewWidth, int previewHeight) {
+        FramingRectMapping mapping = getFramingRectMapping(previewWidth, previewHeight);
+        return mapping != null ? new Rect(mapping.rectInPreview) : null;
+    }
+
+    /**
+     * Framing rect for decoding a frame of the given geometry. Unlike
+     * {@link #getFramingRectInPreview} this does not copy, so decoders can call it per frame; when
+     * the view finder was laid out only after the preview started, it falls back to the cached
+     * mapping. The returned rect is shared and must not be modified.
+     *
+     * @return the framing rect in the coordinates of the rotated frame, or null if the view finder
+     * has not been laid out yet
+     */
+    protected Rect getFramingRect(CameraGeometry geometry) {
+        Rect rect = geometry.getFramingRect();
+        if (rect != null) {
+            return rect;
+        }
+        FramingRectMapping mapping = getFramingRectMapping(geometry.getRotatedWidth(), geometry.getRotatedHeight());
+        return mapping != null ? mapping.rectInPreview : null;
+    }
+
+    private FramingRectMapping getFramingRectMapping(int previewWidth, int previewHeight) {
+        FramingRectMapping mapping = mFramingRectMapping;
+        if (mapping == null || mapping.previewWidth != previewWidth || mapping.previewHeight != previewHeight) {
+            IViewFinder viewFinderView = mViewFinderView;
+            if (viewFinderView == null) {
+                return null;
+            }
+            Rect framingRect = viewFinderView.getFramingRect();
+            int viewFinderViewWidth = viewFinderView.getWidth();
+            int viewFinderViewHeight = viewFinderView.getHeight();
             if (framingRect == null || viewFinderViewWidth == 0 || viewFinderViewHeight == 0) {
                 return null;
             }
@@ -194,52 +878,87 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
             rect.top = rect.top * previewHeight / viewFinderViewHeight;
             rect.bottom = rect.bottom * previewHeight / viewFinderViewHeight;
 
-            mFramingRectInPreview = rect;
+            mapping = new FramingRectMapping(previewWidth, previewHeight, rect);
+            mFramingRectMapping = mapping;
+        }
+        return mapping;
+    }
+
+    /**
+     * Drops the cached framing rect mapping and republishes the camera geometry with the new
+     * framing rect. Call this when a custom {@link IViewFinder} changes its framing rect;
+     * {@link MyViewFinderView} does so automatically.
+     */
+    public void invalidateFramingRect() {
+        mFramingRectMapping = null;
+        CameraGeometry geometry = mCameraGeometry;
+        if (geometry != null) {
+            Rect framingRect = getFramingRectInPreview(geometry.getRotatedWidth(), geometry.getRotatedHeight());
+            mCameraGeometry = geometry.withFramingRect(framingRect);
+            updateFocusArea(mCameraGeometry);
+        }
+    }
+
+    private static final class FramingRectMapping {
+        final int previewWidth;
+        final int previewHeight;
+        final Rect rectInPreview;
+
+        FramingRectMapping(int previewWidth, int previewHeight, Rect rectInPreview) {
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+            this.rectInPreview = rectInPreview;
         }
-        return mFramingRectInPreview;
     }
 
     public void setFlash(boolean flag) {
+        mAutoTorch = null;
         mFlashState = flag;
         if (mCamera != null && CameraUtils.isFlashSupported(mCamera)) {
-
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (flag) {
-                if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_TORCH)) {
-                    return;
-                }
-                parameters.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
-            } else {
-                if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_OFF)) {
-                    return;
+            synchronized (CameraPreview.PARAMETERS_LOCK) {
+                Camera.Parameters parameters = mCamera.getParameters();
+                if (flag) {
+                    if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_TORCH)) {
+                        return;
+                    }
+                    parameters.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+                } else {
+                    if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_OFF)) {
+                        return;
+                    }
+                    parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
                 }
-                parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+                mCamera.setParameters(parameters);
             }
-            mCamera.setParameters(parameters);
         }
     }
 
     public boolean getFlash() {
         if (mCamera != null && CameraUtils.isFlashSupported(mCamera)) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_TORCH)) {
-                return true;
-            } else {
-                return false;
+            synchronized (CameraPreview.PARAMETERS_LOCK) {
+                Camera.Parameters parameters = mCamera.getParameters();
+                if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_TORCH)) {
+                    return true;
+                } else {
+                    return false;
+                }
             }
         }
         return false;
     }
 
     public void toggleFlash() {
+        mAutoTorch = null;
         if (mCamera != null && CameraUtils.isFlashSupported(mCamera)) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_TORCH)) {
-                parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
-            } else {
-                parameters.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+            synchronized (CameraPreview.PARAMETERS_LOCK) {
+                Camera.Parameters parameters = mCamera.getParameters();
+                if (parameters.getFlashMode().equals(Camera.Parameters.FLASH_MODE_TORCH)) {
+                    parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+                } else {
+                    parameters.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+                }
+                mCamera.setParameters(parameters);
             }
-            mCamera.setParameters(parameters);
         }
     }
 
@@ -0,0 +1,95 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * Immutable snapshot of the camera and view geometry taken when the preview starts. Decoders
+ * read it from {@link PreviewFrame#getGeometry()} instead of querying the camera on every frame.
+ */
+public final class CameraGeometry {
+    private final int mPreviewWidth;
+    private final int mPreviewHeight;
+    private final int mPreviewFormat;
+    private final int mDisplayOrientation;
+    private final int mCameraFacing;
+    private final int mFrameRotation;
+    private final Rect mFramingRect;
+    private final Rect mSensorFramingRect;
+
+    public CameraGeometry(int previewWidth, int previewHeight, int previewFormat, int displayOrientation,
+                          int cameraFacing, int frameRotation, Rect framingRect) {
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mPreviewFormat = previewFormat;
+        mDisplayOrientation = displayOrientation;
+        mCameraFacing = cameraFacing;
+        mFrameRotation = frameRotation;
+        mFramingRect = framingRect != null ? new Rect(framingRect) : null;
+        mSensorFramingRect = framingRect != null
+                ? RotationUtils.toSensorRect(framingRect, previewWidth, previewHeight, frameRotation) : null;
+    }
+
+    /**
+     * @return a copy of this snapshot with a different framing rect
+     */
+    public CameraGeometry withFramingRect(Rect framingRect) {
+        return new CameraGeometry(mPreviewWidth, mPreviewHeight, mPreviewFormat, mDisplayOrientation,
+                mCameraFacing, mFrameRotation, framingRect);
+    }
+
+    /** Width of the preview frames as delivered by the camera. */
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    /** Height of the preview frames as delivered by the camera. */
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
+    /** Preview format, one of {@link android.graphics.ImageFormat}. */
+    public int getPreviewFormat() {
+        return mPreviewFormat;
+    }
+
+    /** Clockwise rotation passed to {@link android.hardware.Camera#setDisplayOrientation(int)}. */
+    public int getDisplayOrientation() {
+        return mDisplayOrientation;
+    }
+
+    /** {@link android.hardware.Camera.CameraInfo#CAMERA_FACING_BACK} or {@code CAMERA_FACING_FRONT}. */
+    public int getCameraFacing() {
+        return mCameraFacing;
+    }
+
+    /** Clockwise rotation decoders apply to preview frames so that they match the screen. */
+    public int getFrameRotation() {
+        return mFrameRotation;
+    }
+
+    /** Width of a preview frame after {@link #getFrameRotation()} is applied. */
+    public int getRotatedWidth() {
+        return RotationUtils.getRotatedWidth(mPreviewWidth, mPreviewHeight, mFrameRotation);
+    }
+
+    /** Height of a preview frame after {@link #getFrameRotation()} is applied. */
+    public int getRotatedHeight() {
+        return RotationUtils.getRotatedHeight(mPreviewWidth, mPreviewHeight, mFrameRotation);
+    }
+
+    /**
+     * Framing rect in the coordinates of the rotated preview frame, or null if the view finder was
+     * not laid out yet. The returned rect is shared and must not be modified.
+     */
+    public Rect getFramingRect() {
+        return mFramingRect;
+    }
+
+    /**
+     * Framing rect in the coordinates of the preview frame as delivered by the camera, or null if
+     * the view finder was not laid out yet. The returned rect is shared and must not be modified.
+     */
+    public Rect getSensorFramingRect() {
+        return mSensorFramingRect;
+    }
+}
@@ -2,7 +2,9 @@ package me.dm7.barcodescanner.core;
 
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.util.AttributeSet;
@@ -19,12 +21,42 @@ import java.util.List;
 public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
     private static final String TAG = "CameraPreview";
 
+    /**
+     * Held for every get, modify and set of the {@link Camera.Parameters}. setParameters() writes
+     * all of them at once, and they are changed from the main thread (preview setup, flash, focus
+     * areas) as well as from the camera thread (autofocus callbacks, {@link AutoTorch}), so
+     * without the lock a writer can undo a concurrent change of another.
+     */
+    static final Object PARAMETERS_LOCK = new Object();
+
+    public interface OnPreviewStartedListener {
+        /**
+         * Called every time the preview is (re)started, right before frames start flowing.
+         * Preview size, format and display orientation are up to date at this point.
+         */
+        void onPreviewStarted(CameraPreview preview);
+    }
+
     private Camera mCamera;
     private Handler mAutoFocusHandler;
     private boolean mPreviewing = true;
+    private boolean mPreviewStarted;
     private boolean mAutoFocus = true;
     private boolean mSurfaceCreated = false;
     private Camera.PreviewCallback mPreviewCallback;
+    private PreviewBufferPool mBufferPool;
+    private int mPreviewBufferSize;
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private int mPreviewFormat;
+    private int mDisplayOrientation;
+    private OnPreviewStartedListener mPreviewStartedListener;
+    private OrientationCache mOrientationCache;
+    private PreviewSizePolicy mPreviewSizePolicy;
+    private IViewFinder mViewFinder;
+    private FocusController mFocusController;
+    private boolean mKeepCameraParameters;
+    private int mParametersDisplayOrientation;
 
     public CameraPreview(Context context, Camera camera, Camera.PreviewCallback previewCallback) {
         super(context);
@@ -46,6 +78,84 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     public void setCamera(Camera camera, Camera.PreviewCallback previewCallback) {
         mCamera = camera;
         mPreviewCallback = previewCallback;
+        if (mFocusController != null) {
+            mFocusController.setCamera(camera);
+        }
+    }
+
+    /**
+     * Use continuous focus when the camera supports it and trigger autofocus from the decode
+     * results, instead of triggering autofocus every second. Takes effect the next time the
+     * preview is started.
+     *
+     * @param focusController controller to use or null to always trigger autofocus periodically
+     */
+    public void setFocusController(FocusController focusController) {
+        mFocusController = focusController;
+        if (focusController != null) {
+            focusController.setCamera(mCamera);
+        }
+    }
+
+    /**
+     * Use a fixed pool of callback buffers instead of one-shot callbacks, which allocate a new
+     * frame buffer for every preview frame. A running preview is restarted with the same
+     * parameters, since the buffers queued on the camera belong to the previous pool.
+     *
+     * @param bufferPool pool to use or null to go back to one-shot callbacks
+     */
+    public void setPreviewBufferPool(PreviewBufferPool bufferPool) {
+        if (bufferPool == mBufferPool) {
+            return;
+        }
+        if (!mPreviewStarted) {
+            mBufferPool = bufferPool;
+            return;
+        }
+        stopCameraPreview();
+        mBufferPool = bufferPool;
+        keepCameraParameters();
+        showCameraPreview();
+    }
+
+    /**
+     * Use cached orientation values for the opened camera instead of querying the camera info and
+     * the window manager on every call.
+     */
+    public void setOrientationCache(OrientationCache orientationCache) {
+        mOrientationCache = orientationCache;
+    }
+
+    /**
+     * @param policy picks the preview size, or null to pick the size closest to the view size
+     * @param viewFinder view finder whose framing rect is passed to the policy
+     */
+    public void setPreviewSizePolicy(PreviewSizePolicy policy, IViewFinder viewFinder) {
+        mPreviewSizePolicy = policy;
+        mViewFinder = viewFinder;
+    }
+
+    public void setOnPreviewStartedListener(OnPreviewStartedListener listener) {
+        mPreviewStartedListener = listener;
+    }
+
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
+    public int getPreviewFormat() {
+        return mPreviewFormat;
+    }
+
+    /**
+     * @return display orientation the running preview was started with
+     */
+    public int getPreviewDisplayOrientation() {
+        return mDisplayOrientation;
     }
 
     @Override
@@ -73,12 +183,28 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
             try {
                 getHolder().addCallback(this);
                 mPreviewing = true;
-                setupCameraParameters();
+                int displayOrientation = getDisplayOrientation();
+                if (!mKeepCameraParameters || displayOrientation != mParametersDisplayOrientation) {
+                    setupCameraParameters();
+                }
+                mKeepCameraParameters = false;
                 mCamera.setPreviewDisplay(getHolder());
-                mCamera.setDisplayOrientation(getDisplayOrientation());
-                mCamera.setOneShotPreviewCallback(mPreviewCallback);
+                mDisplayOrientation = displayOrientation;
+                mCamera.setDisplayOrientation(mDisplayOrientation);
+                if (mBufferPool != null) {
+                    mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+                    mBufferPool.attach(mCamera, mPreviewBufferSize);
+                } else {
+                    mCamera.setOneShotPreviewCallback(mPreviewCallback);
+                }
+                if (mPreviewStartedListener != null) {
+                    mPreviewStartedListener.onPreviewStarted(this);
+                }
                 mCamera.startPreview();
-                if(mAutoFocus) {
+                mPreviewStarted = true;
+                if (mFocusController != null) {
+                    mFocusController.onPreviewStarted();
+                } else if(mAutoFocus) {
                     if (mSurfaceCreated) { // check if surface created before using autofocus
                         safeAutoFocus();
                     } else {
@@ -105,9 +231,18 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         if(mCamera != null) {
             try {
                 mPreviewing = false;
+                mPreviewStarted = false;
                 getHolder().removeCallback(this);
                 mCamera.cancelAutoFocus();
-                mCamera.setOneShotPreviewCallback(null);
+                if (mFocusController != null) {
+                    mFocusController.onPreviewStopped();
+                }
+                if (mBufferPool != null) {
+                    mCamera.setPreviewCallbackWithBuffer(null);
+                    mBufferPool.detach();
+                } else {
+                    mCamera.setOneShotPreviewCallback(null);
+                }
                 mCamera.stopPreview();
             } catch(Exception e) {
                 Log.e(TAG, e.toString(), e);
@@ -115,11 +250,47 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         }
     }
 
+    /**
+     * Reuses the parameters that were set up for the last preview the next time the preview is
+     * shown, unless the display orientation changed since. For restarting the preview on a camera
+     * that was kept open by the same view.
+     */
+    public void keepCameraParameters() {
+        mKeepCameraParameters = true;
+    }
+
+    /**
+     * Shows the preview again after {@link #stopCameraPreview()}: right away if the surface is
+     * still there, or as soon as it is recreated.
+     */
+    public void restartCameraPreview() {
+        Surface surface = getHolder().getSurface();
+        if (surface != null && surface.isValid()) {
+            showCameraPreview();
+        } else {
+            getHolder().addCallback(this);
+        }
+    }
+
     public void setupCameraParameters() {
-        Camera.Size optimalSize = getOptimalPreviewSize();
-        Camera.Parameters parameters = mCamera.getParameters();
-        parameters.setPreviewSize(optimalSize.width, optimalSize.height);
-        mCamera.setParameters(parameters);
+        Camera.Size optimalSize = selectPreviewSize();
+        if (optimalSize == null) {
+            optimalSize = getOptimalPreviewSize();
+        }
+        Camera.Parameters parameters;
+        synchronized (PARAMETERS_LOCK) {
+            parameters = mCamera.getParameters();
+            parameters.setPreviewSize(optimalSize.width, optimalSize.height);
+            if (mFocusController != null) {
+                mFocusController.setupFocusMode(parameters, mAutoFocus);
+            }
+            mCamera.setParameters(parameters);
+        }
+        mPreviewWidth = optimalSize.width;
+        mPreviewHeight = optimalSize.height;
+        mPreviewFormat = parameters.getPreviewFormat();
+        mPreviewBufferSize = mPreviewWidth * mPreviewHeight * ImageFormat.getBitsPerPixel(mPreviewFormat) / 8;
+        mParametersDisplayOrientation = getDisplayOrientation();
         adjustViewSize(optimalSize);
     }
 
@@ -156,6 +327,9 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     }
 
     public int getDisplayOrientation() {
+        if (mOrientationCache != null) {
+            return mOrientationCache.getDisplayOrientation();
+        }
         Camera.CameraInfo info = new Camera.CameraInfo();
         Camera.getCameraInfo(Camera.CameraInfo.CAMERA_FACING_BACK, info);
         WindowManager wm = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
@@ -180,6 +354,35 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         return result;
     }
 
+    private Camera.Size selectPreviewSize() {
+        PreviewSizePolicy policy = mPreviewSizePolicy;
+        if (policy == null || mCamera == null) {
+            return null;
+        }
+        int w = getWidth();
+        int h = getHeight();
+        float framingWidthRatio = 1;
+        float framingHeightRatio = 1;
+        IViewFinder viewFinder = mViewFinder;
+        Rect framingRect = viewFinder != null ? viewFinder.getFramingRect() : null;
+        if (framingRect != null && viewFinder.getWidth() > 0 && viewFinder.getHeight() > 0) {
+            framingWidthRatio = (float) framingRect.width() / viewFinder.getWidth();
+            framingHeightRatio = (float) framingRect.height() / viewFinder.getHeight();
+        }
+        int screenOrientation = mOrientationCache != null ? mOrientationCache.getScreenOrientation() :
+                DisplayUtils.getScreenOrientation(getContext());
+        if (screenOrientation == Configuration.ORIENTATION_PORTRAIT) {
+            int portraitWidth = h;
+            h = w;
+            w = portraitWidth;
+            float portraitWidthRatio = framingHeightRatio;
+            framingHeightRatio = framingWidthRatio;
+            framingWidthRatio = portraitWidthRatio;
+        }
+        return policy.selectPreviewSize(mCamera.getParameters().getSupportedPreviewSizes(), w, h,
+                framingWidthRatio, framingHeightRatio);
+    }
+
     private Camera.Size getOptimalPreviewSize() {
         if(mCamera == null) {
             return null;
@@ -188,7 +391,9 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         List<Camera.Size> sizes = mCamera.getParameters().getSupportedPreviewSizes();
         int w = getWidth();
         int h = getHeight();
-        if (DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
+        int screenOrientation = mOrientationCache != null ? mOrientationCache.getScreenOrientation() :
+                DisplayUtils.getScreenOrientation(getContext());
+        if (screenOrientation == Configuration.ORIENTATION_PORTRAIT) {
             int portraitWidth = h;
             h = w;
             w = portraitWidth;
@@ -232,6 +437,10 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
                 return;
             }
             mAutoFocus = state;
+            if (mFocusController != null) {
+                mFocusController.setAutoFocusEnabled(state);
+                return;
+            }
             if(mAutoFocus) {
                 if (mSurfaceCreated) { // check if surface created before using autofocus
                     Log.v(TAG, "Starting autofocus");
@@ -248,7 +457,7 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
     private Runnable doAutoFocus = new Runnable() {
         public void run() {
-            if(mCamera != null && mPreviewing && mAutoFocus && mSurfaceCreated) {
+            if(mCamera != null && mPreviewing && mAutoFocus && mSurfaceCreated && mFocusController == null) {
                 safeAutoFocus();
             }
         }
@@ -26,6 +26,24 @@ public class CameraUtils {
         return c; // returns null if camera is unavailable
     }
 
+    /**
+     * @return id of the camera opened by {@link #getCameraInstance(int)} for {@code cameraId}
+     */
+    public static int resolveCameraId(int cameraId) {
+        if (cameraId != -1) {
+            return cameraId;
+        }
+        // Camera.open() opens the first back-facing camera
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
     public static boolean isFlashSupported(Camera camera) {
         /* Credits: Top answer at http://stackoverflow.com/a/19599365/868173 */
         if (camera != null) {
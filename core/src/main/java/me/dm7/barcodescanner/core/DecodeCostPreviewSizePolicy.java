@@ -0,0 +1,143 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Picks the smallest preview size that still resolves the codes to be scanned, instead of the
+ * size closest to the view size. Decoding time grows with the number of pixels in the framing
+ * rect, so on a large screen this can cut the time per frame several times.</p>
+ *
+ * <p>The resolution needed is configured per symbology with
+ * {@link #setMinModulePixels(Object, float, float)}: how many modules (bars or squares of the
+ * smallest width) fit across the shorter side of the framing rect when the smallest expected code
+ * is in view, and how many preview pixels each of them needs. The strictest requirement wins.</p>
+ *
+ * <p>If no size meets the requirement, the largest size that can still be decoded at the target
+ * frame rate is picked, using an estimate of the decode time per framing rect pixel.</p>
+ */
+public class DecodeCostPreviewSizePolicy implements PreviewSizePolicy {
+    private static final double ASPECT_TOLERANCE = 0.1;
+
+    public static final float DEFAULT_TARGET_FRAME_RATE = 15;
+    /** Rough decode time of a framing rect pixel on a mid-range phone. */
+    public static final float DEFAULT_DECODE_NANOS_PER_PIXEL = 15;
+    /** An EAN-13 code with quiet zones that fills half of the framing rect, at 1.5 pixels per module. */
+    public static final float DEFAULT_MIN_FRAMING_PIXELS = 2 * 113 * 1.5f;
+
+    private final Map<Object, Float> mMinFramingPixels = new HashMap<Object, Float>();
+    private float mTargetFrameRate = DEFAULT_TARGET_FRAME_RATE;
+    private float mDecodeNanosPerPixel = DEFAULT_DECODE_NANOS_PER_PIXEL;
+
+    /**
+     * Requires at least {@code minModulePixels} preview pixels per module for a symbology, i.e.
+     * {@code modulesAcross * minModulePixels} pixels across the shorter side of the framing rect.
+     *
+     * @param symbology any key identifying the symbology, e.g. a {@code BarcodeFormat}
+     * @param modulesAcross modules across the shorter side of the framing rect when the smallest
+     *                      expected code of this symbology is in view
+     * @param minModulePixels preview pixels needed per module to decode reliably, usually 1.5 to 3
+     */
+    public void setMinModulePixels(Object symbology, float modulesAcross, float minModulePixels) {
+        mMinFramingPixels.put(symbology, modulesAcross * minModulePixels);
+    }
+
+    public void removeMinModulePixels(Object symbology) {
+        mMinFramingPixels.remove(symbology);
+    }
+
+    /**
+     * @return pixels needed across the shorter side of the framing rect to meet the requirement of
+     * every symbology, or {@link #DEFAULT_MIN_FRAMING_PIXELS} if none was set
+     */
+    public float getMinFramingPixels() {
+        if (mMinFramingPixels.isEmpty()) {
+            return DEFAULT_MIN_FRAMING_PIXELS;
+        }
+        float minFramingPixels = 0;
+        for (float pixels : mMinFramingPixels.values()) {
+            minFramingPixels = Math.max(minFramingPixels, pixels);
+        }
+        return minFramingPixels;
+    }
+
+    /**
+     * @param frameRate frames per second that should be decoded when no size meets the resolution
+     *                  requirement
+     */
+    public void setTargetFrameRate(float frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frameRate must be positive");
+        }
+        mTargetFrameRate = frameRate;
+    }
+
+    public float getTargetFrameRate() {
+        return mTargetFrameRate;
+    }
+
+    /**
+     * @param nanos decode time per framing rect pixel, e.g. from
+     *              {@link BarcodeScannerView#getAverageDecodeTimeNanos()} divided by the framing
+     *              rect area of the previous preview size
+     */
+    public void setDecodeNanosPerPixel(float nanos) {
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("nanos must be positive");
+        }
+        mDecodeNanosPerPixel = nanos;
+    }
+
+    public float getDecodeNanosPerPixel() {
+        return mDecodeNanosPerPixel;
+    }
+
+    @Override
+    public Camera.Size selectPreviewSize(List<Camera.Size> sizes, int viewWidth, int viewHeight,
+                                         float framingWidthRatio, float framingHeightRatio) {
+        if (sizes == null || sizes.isEmpty() || viewWidth == 0 || viewHeight == 0) {
+            return null;
+        }
+        List<Camera.Size> candidates = new ArrayList<Camera.Size>();
+        double targetRatio = (double) viewWidth / viewHeight;
+        for (Camera.Size size : sizes) {
+            double ratio = (double) size.width / size.height;
+            if (Math.abs(ratio - targetRatio) <= ASPECT_TOLERANCE) {
+                candidates.add(size);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = sizes;
+        }
+
+        float minFramingPixels = getMinFramingPixels();
+        double frameBudgetNanos = 1e9 / mTargetFrameRate;
+        Camera.Size smallestSufficient = null;
+        Camera.Size largestAffordable = null;
+        Camera.Size smallest = null;
+        for (Camera.Size size : candidates) {
+            float framingWidth = size.width * framingWidthRatio;
+            float framingHeight = size.height * framingHeightRatio;
+            int area = size.width * size.height;
+            if (Math.min(framingWidth, framingHeight) >= minFramingPixels
+                    && (smallestSufficient == null || area < smallestSufficient.width * smallestSufficient.height)) {
+                smallestSufficient = size;
+            }
+            if (framingWidth * framingHeight * mDecodeNanosPerPixel <= frameBudgetNanos
+                    && (largestAffordable == null || area > largestAffordable.width * largestAffordable.height)) {
+                largestAffordable = size;
+            }
+            if (smallest == null || area < smallest.width * smallest.height) {
+                smallest = size;
+            }
+        }
+        if (smallestSufficient != null) {
+            return smallestSufficient;
+        }
+        return largestAffordable != null ? largestAffordable : smallest;
+    }
+}
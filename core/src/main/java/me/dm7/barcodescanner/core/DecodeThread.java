@@ -0,0 +1,40 @@
+package me.dm7.barcodescanner.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker of a {@link DecodeThreadPool}. Owns a {@link FrameDecoder} and a {@link FrameMeter} that
+ * are only ever used from this thread.
+ */
+public class DecodeThread extends Thread {
+    private static final String LOG_TAG = "DecodeThread";
+
+    private final DecodeThreadPool mPool;
+    private final FrameDecoder mFrameDecoder;
+    private final FrameMeter mFrameMeter = new FrameMeter();
+    private volatile boolean mQuit;
+
+    public DecodeThread(DecodeThreadPool pool, int index, FrameDecoder frameDecoder) {
+        super(LOG_TAG + "-" + index);
+        mPool = pool;
+        mFrameDecoder = frameDecoder;
+    }
+
+    public void quit() {
+        mQuit = true;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (!mQuit) {
+            PreviewFrame frame = mPool.take();
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            mPool.getHost().onFrameTaken(frame);
+            mPool.getHost().onFrameDecode(mFrameDecoder, mFrameMeter, frame);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package me.dm7.barcodescanner.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decodes preview frames off the camera thread on one or more {@link DecodeThread}s.
+ *
+ * <p>Frames are handed over through a single-slot mailbox: submitting a frame while an older one
+ * is still waiting replaces (and drops) the older one, so the decoders always work on the most
+ * recent frame and the camera thread never waits for a decode to finish. With more than one
+ * thread several frames are decoded at the same time; {@link #claim(PreviewFrame)} keeps results
+ * in frame order by dropping those of a frame that finished after a later frame's result was
+ * claimed. Neither side takes a lock.</p>
+ *
+ * <p>A frame captured while the lens is moving does not replace a waiting frame captured while it
+ * was still, since it is much less likely to decode.</p>
+ */
+public class DecodeThreadPool {
+    /**
+     * The callbacks of a scanner view the pool and its threads call into.
+     */
+    interface Host {
+        FrameDecoder createFrameDecoder();
+
+        /** Called on a decode thread right after it took a frame. */
+        void onFrameTaken(PreviewFrame frame);
+
+        /** Called on a decode thread to decode a frame it took. */
+        void onFrameDecode(FrameDecoder frameDecoder, FrameMeter frameMeter, PreviewFrame frame);
+
+        /** Called for a frame that was replaced in the mailbox, or was still waiting on quit. */
+        void onFrameDropped(PreviewFrame frame);
+    }
+
+    private final Host mHost;
+    private final AtomicReference<PreviewFrame> mPendingFrame = new AtomicReference<PreviewFrame>();
+    private final DecodeThread[] mThreads;
+    private final AtomicLong mLastClaimedSequence = new AtomicLong(-1);
+
+    public DecodeThreadPool(BarcodeScannerView scannerView, int threadCount) {
+        this(asHost(scannerView), threadCount);
+    }
+
+    DecodeThreadPool(Host host, int threadCount) {
+        mHost = host;
+        mThreads = new DecodeThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mThreads[i] = new DecodeThread(this, i, host.createFrameDecoder());
+            mThreads[i].start();
+        }
+    }
+
+    public int getThreadCount() {
+        return mThreads.length;
+    }
+
+    /**
+     * Called from the camera thread. Never blocks.
+     */
+    public void submit(PreviewFrame frame) {
+        PreviewFrame staleFrame;
+        do {
+            staleFrame = mPendingFrame.get();
+            if (staleFrame != null && frame.isFocusMoving() && !staleFrame.isFocusMoving()) {
+                mHost.onFrameDropped(frame);
+                return;
+            }
+        } while (!mPendingFrame.compareAndSet(staleFrame, frame));
+        if (staleFrame != null) {
+            mHost.onFrameDropped(staleFrame);
+        }
+        for (DecodeThread thread : mThreads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public void quit() {
+        for (DecodeThread thread : mThreads) {
+            thread.quit();
+        }
+        PreviewFrame frame = mPendingFrame.getAndSet(null);
+        if (frame != null) {
+            mHost.onFrameDropped(frame);
+        }
+    }
+
+    /**
+     * @return true if a result of a later frame was already claimed, so that results of
+     * {@code frame} are stale
+     */
+    public boolean isSuperseded(PreviewFrame frame) {
+        return frame.getSequence() <= mLastClaimedSequence.get();
+    }
+
+    /**
+     * Claims the right to deliver a result of {@code frame}.
+     *
+     * @return false if a result of the same or a later frame was claimed first
+     */
+    public boolean claim(PreviewFrame frame) {
+        long sequence = frame.getSequence();
+        long lastClaimed;
+        do {
+            lastClaimed = mLastClaimedSequence.get();
+            if (sequence <= lastClaimed) {
+                return false;
+            }
+        } while (!mLastClaimedSequence.compareAndSet(lastClaimed, sequence));
+        return true;
+    }
+
+    Host getHost() {
+        return mHost;
+    }
+
+    PreviewFrame take() {
+        return mPendingFrame.getAndSet(null);
+    }
+
+    private static Host asHost(final BarcodeScannerView scannerView) {
+        return new Host() {
+            @Override
+            public FrameDecoder createFrameDecoder() {
+                return scannerView.createFrameDecoder();
+            }
+
+            @Override
+            public void onFrameTaken(PreviewFrame frame) {
+                scannerView.onFrameTaken(frame);
+            }
+
+            @Override
+            public void onFrameDecode(FrameDecoder frameDecoder, FrameMeter frameMeter, PreviewFrame frame) {
+                scannerView.onFrameDecode(frameDecoder, frameMeter, frame);
+            }
+
+            @Override
+            public void onFrameDropped(PreviewFrame frame) {
+                scannerView.onFrameDropped(frame);
+            }
+        };
+    }
+}
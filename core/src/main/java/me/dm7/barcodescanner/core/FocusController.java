@@ -0,0 +1,480 @@
+package me.dm7.barcodescanner.core;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Keeps the framing rect in focus. When the camera supports it, the lens is driven by
+ * {@code FOCUS_MODE_CONTINUOUS_PICTURE} (or {@code CONTINUOUS_VIDEO}), and on API 14+ focus and
+ * metering are restricted to the framing rect.</p>
+ *
+ * <p>Autofocus sweeps are not run on a timer but triggered by the decode pipeline: when a streak
+ * of decoded frames finds nothing, when frames stay much less sharp than right after the last
+ * sweep, or, without continuous focus, when the brightness of the scene jumps, e.g. because a new
+ * item was put in view. Frames that already decode never trigger a sweep. Without continuous
+ * focus a sweep also runs when none has run for {@link #setFallbackInterval(long) a while} and no
+ * code was found since, in case the frames stop coming in or are all skipped before decoding.</p>
+ *
+ * <p>Frames captured while the lens moves are tagged with {@link PreviewFrame#isFocusMoving()},
+ * see {@link #isFocusMoving()}.</p>
+ *
+ * <p>The camera is set up and sweeps are triggered on the main thread. The autofocus callbacks
+ * arrive on the thread the camera was opened on, and the frame callbacks on the decode threads.
+ * Focus mode and areas are therefore changed under {@link CameraPreview#PARAMETERS_LOCK}.</p>
+ */
+public class FocusController {
+    private static final String TAG = "FocusController";
+
+    public static final int DEFAULT_FAILURE_STREAK = 30;
+    public static final long DEFAULT_FALLBACK_INTERVAL_MILLIS = 2000;
+    private static final int AREA_WEIGHT = 1000;
+    private static final long MIN_TRIGGER_INTERVAL_MILLIS = 500;
+    // A sweep is triggered when frames stay this much less sharp than the sharpest recent frame
+    private static final float SHARPNESS_DROP_RATIO = 0.4f;
+    private static final int SHARPNESS_DROP_FRAMES = 5;
+    private static final float SHARPNESS_REFERENCE_DECAY = 0.99f;
+    // ... or when the mean luminance jumps by this much from its running average
+    private static final float LUMINANCE_CHANGE = 32;
+    private static final float LUMINANCE_SMOOTHING = 0.1f;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Camera mCamera;
+    private volatile String mContinuousFocusMode;
+    private boolean mAutoFocusSupported;
+    private volatile boolean mAutoFocusEnabled = true;
+    private volatile boolean mFocusing;
+    private volatile boolean mContinuousFocusMoving;
+    private Object mAutoFocusMoveCallback;
+    private final AtomicBoolean mTriggerPending = new AtomicBoolean();
+    private volatile long mLastTriggerTime;
+    private volatile long mFallbackIntervalMillis = DEFAULT_FALLBACK_INTERVAL_MILLIS;
+    private volatile boolean mFoundSinceSweep;
+
+    // Trigger state, guarded by this
+    private int mFailureStreak = DEFAULT_FAILURE_STREAK;
+    private int mFailedFrames;
+    private float mSharpnessReference;
+    private int mBlurryFrames;
+    private float mLuminanceBaseline = -1;
+
+    private final AtomicLong mAutoFocusCount = new AtomicLong();
+    private final AtomicLong mFailureTriggerCount = new AtomicLong();
+    private final AtomicLong mSharpnessTriggerCount = new AtomicLong();
+    private final AtomicLong mLuminanceTriggerCount = new AtomicLong();
+    private final AtomicLong mFallbackTriggerCount = new AtomicLong();
+
+    private final Runnable mTriggerAutoFocus = new Runnable() {
+        @Override
+        public void run() {
+            triggerAutoFocus();
+        }
+    };
+
+    private final Runnable mFallbackAutoFocus = new Runnable() {
+        @Override
+        public void run() {
+            if (mFoundSinceSweep) {
+                // The lens is where it should be
+                mFoundSinceSweep = false;
+                scheduleFallback();
+                return;
+            }
+            mFallbackTriggerCount.incrementAndGet();
+            triggerAutoFocus();
+        }
+    };
+
+    private final Camera.AutoFocusCallback mAutoFocusCallback = new Camera.AutoFocusCallback() {
+        @Override
+        public void onAutoFocus(boolean success, Camera camera) {
+            mFocusing = false;
+            resetTriggers();
+            if (mContinuousFocusMode != null) {
+                resumeContinuousFocus();
+            } else {
+                scheduleFallback();
+            }
+        }
+    };
+
+    void setCamera(Camera camera) {
+        mCamera = camera;
+        onPreviewStopped();
+    }
+
+    /**
+     * Forgets a pending or running autofocus sweep, which stopping the preview cancels.
+     */
+    void onPreviewStopped() {
+        mFocusing = false;
+        mContinuousFocusMoving = false;
+        mTriggerPending.set(false);
+        mHandler.removeCallbacks(mTriggerAutoFocus);
+        mHandler.removeCallbacks(mFallbackAutoFocus);
+    }
+
+    /**
+     * Picks the focus mode while the preview parameters are set up.
+     *
+     * @param autoFocus whether autofocus is enabled at all
+     */
+    void setupFocusMode(Camera.Parameters parameters, boolean autoFocus) {
+        List<String> focusModes = parameters.getSupportedFocusModes();
+        String continuousFocusMode = null;
+        if (focusModes != null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                    && focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                continuousFocusMode = Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
+            } else if (focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO)) {
+                continuousFocusMode = Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO;
+            }
+        }
+        mAutoFocusSupported = focusModes != null && focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO);
+        mContinuousFocusMode = continuousFocusMode;
+        mAutoFocusEnabled = autoFocus;
+        resetTriggers();
+        if (continuousFocusMode != null && autoFocus) {
+            parameters.setFocusMode(continuousFocusMode);
+        } else if (mAutoFocusSupported) {
+            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+        }
+    }
+
+    /**
+     * Called right after the preview started. Without continuous focus this runs the first sweep.
+     */
+    void onPreviewStarted() {
+        if (!mAutoFocusEnabled || mCamera == null) {
+            return;
+        }
+        if (mContinuousFocusMode != null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                setAutoFocusMoveCallback();
+            }
+        } else if (mTriggerPending.compareAndSet(false, true)) {
+            mHandler.post(mTriggerAutoFocus);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setAutoFocusMoveCallback() {
+        if (mAutoFocusMoveCallback == null) {
+            mAutoFocusMoveCallback = new Camera.AutoFocusMoveCallback() {
+                @Override
+                public void onAutoFocusMoving(boolean start, Camera camera) {
+                    mContinuousFocusMoving = start;
+                }
+            };
+        }
+        try {
+            mCamera.setAutoFocusMoveCallback((Camera.AutoFocusMoveCallback) mAutoFocusMoveCallback);
+        } catch (RuntimeException e) {
+            Log.e(TAG, e.toString(), e);
+        }
+    }
+
+    /**
+     * @return true if the camera focuses continuously
+     */
+    public boolean isContinuousFocus() {
+        return mContinuousFocusMode != null;
+    }
+
+    /**
+     * @return true while an autofocus sweep runs or, on API 16+, while continuous focus moves the
+     * lens. Safe to call from any thread.
+     */
+    public boolean isFocusMoving() {
+        return mFocusing || mContinuousFocusMoving;
+    }
+
+    /**
+     * Switches autofocus on or off, e.g. when it is disabled by the app.
+     */
+    void setAutoFocusEnabled(boolean enabled) {
+        if (enabled == mAutoFocusEnabled) {
+            return;
+        }
+        mAutoFocusEnabled = enabled;
+        if (enabled) {
+            if (mContinuousFocusMode != null) {
+                resumeContinuousFocus();
+            } else if (mTriggerPending.compareAndSet(false, true)) {
+                mHandler.post(mTriggerAutoFocus);
+            }
+            return;
+        }
+        mHandler.removeCallbacks(mTriggerAutoFocus);
+        mHandler.removeCallbacks(mFallbackAutoFocus);
+        mTriggerPending.set(false);
+        Camera camera = mCamera;
+        if (camera != null) {
+            try {
+                camera.cancelAutoFocus();
+            } catch (RuntimeException e) {
+                Log.e(TAG, e.toString(), e);
+            }
+        }
+        mFocusing = false;
+        if (mContinuousFocusMode != null) {
+            setFocusMode(mAutoFocusSupported ? Camera.Parameters.FOCUS_MODE_AUTO : null);
+        }
+    }
+
+    /**
+     * Restricts focus and metering to {@code sensorRect}. Ignored before API 14 and by cameras
+     * that do not support focus or metering areas.
+     *
+     * @param sensorRect area in the coordinates of a {@code sensorWidth} x {@code sensorHeight}
+     *                   preview frame as delivered by the camera, or null for the whole frame
+     */
+    public void setFocusArea(Rect sensorRect, int sensorWidth, int sensorHeight) {
+        Camera camera = mCamera;
+        if (camera == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        try {
+            setFocusAreas(camera, sensorRect, sensorWidth, sensorHeight);
+        } catch (RuntimeException e) {
+            Log.e(TAG, e.toString(), e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void setFocusAreas(Camera camera, Rect sensorRect, int sensorWidth, int sensorHeight) {
+        List<Camera.Area> areas = null;
+        if (sensorRect != null && sensorWidth > 0 && sensorHeight > 0) {
+            // Camera areas span -1000..1000 over the field of view, in sensor orientation
+            Rect rect = new Rect(
+                    clampAreaCoordinate(sensorRect.left * 2000 / sensorWidth - 1000),
+                    clampAreaCoordinate(sensorRect.top * 2000 / sensorHeight - 1000),
+                    clampAreaCoordinate(sensorRect.right * 2000 / sensorWidth - 1000),
+                    clampAreaCoordinate(sensorRect.bottom * 2000 / sensorHeight - 1000));
+            if (!rect.isEmpty()) {
+                areas = new ArrayList<Camera.Area>(1);
+                areas.add(new Camera.Area(rect, AREA_WEIGHT));
+            }
+        }
+        synchronized (CameraPreview.PARAMETERS_LOCK) {
+            Camera.Parameters parameters = camera.getParameters();
+            boolean focusAreas = parameters.getMaxNumFocusAreas() > 0;
+            boolean meteringAreas = parameters.getMaxNumMeteringAreas() > 0;
+            if (!focusAreas && !meteringAreas) {
+                return;
+            }
+            if (focusAreas) {
+                parameters.setFocusAreas(areas);
+            }
+            if (meteringAreas) {
+                parameters.setMeteringAreas(areas);
+            }
+            camera.setParameters(parameters);
+        }
+    }
+
+    private static int clampAreaCoordinate(int coordinate) {
+        return Math.max(-1000, Math.min(1000, coordinate));
+    }
+
+    /**
+     * Reports the sharpness and the brightness of a frame, as measured by a {@link FrameMeter}.
+     * Called on the decode threads.
+     */
+    public synchronized void onFrameMeasured(boolean focusMoving, float sharpness, float luminance) {
+        if (focusMoving) {
+            // Blurry on purpose, and metering may still be adjusting
+            return;
+        }
+        mSharpnessReference = Math.max(sharpness, mSharpnessReference * SHARPNESS_REFERENCE_DECAY);
+        if (sharpness >= mSharpnessReference * SHARPNESS_DROP_RATIO) {
+            mBlurryFrames = 0;
+        } else if (++mBlurryFrames >= SHARPNESS_DROP_FRAMES) {
+            mBlurryFrames = 0;
+            requestAutoFocus(mSharpnessTriggerCount);
+        }
+
+        // Continuous focus already follows scene changes on its own
+        if (mContinuousFocusMode != null) {
+            return;
+        }
+        if (mLuminanceBaseline < 0) {
+            mLuminanceBaseline = luminance;
+        } else if (Math.abs(luminance - mLuminanceBaseline) > LUMINANCE_CHANGE) {
+            mLuminanceBaseline = luminance;
+            requestAutoFocus(mLuminanceTriggerCount);
+        } else {
+            mLuminanceBaseline += (luminance - mLuminanceBaseline) * LUMINANCE_SMOOTHING;
+        }
+    }
+
+    /**
+     * Reports whether a decoded frame held a code. Called on the decode threads.
+     */
+    public synchronized void onFrameDecoded(boolean focusMoving, boolean found) {
+        if (found) {
+            mFailedFrames = 0;
+            mBlurryFrames = 0;
+            mFoundSinceSweep = true;
+        } else if (!focusMoving && ++mFailedFrames >= mFailureStreak) {
+            mFailedFrames = 0;
+            requestAutoFocus(mFailureTriggerCount);
+        }
+    }
+
+    /**
+     * @param frames number of decoded frames in a row without a code before an autofocus sweep is
+     *               triggered
+     */
+    public synchronized void setFailureStreak(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("frames must be at least 1");
+        }
+        mFailureStreak = frames;
+    }
+
+    public synchronized int getFailureStreak() {
+        return mFailureStreak;
+    }
+
+    /**
+     * Without continuous focus, runs a sweep when none has run for {@code millis} and no code was
+     * found since the last one. Takes effect after the next sweep.
+     *
+     * @param millis interval, or 0 to only sweep when the decode pipeline asks for it
+     */
+    public void setFallbackInterval(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        mFallbackIntervalMillis = millis;
+    }
+
+    public long getFallbackInterval() {
+        return mFallbackIntervalMillis;
+    }
+
+    /** Number of autofocus sweeps that were run. */
+    public long getAutoFocusCount() {
+        return mAutoFocusCount.get();
+    }
+
+    /** Number of sweeps requested because decoding kept failing. */
+    public long getFailureTriggerCount() {
+        return mFailureTriggerCount.get();
+    }
+
+    /** Number of sweeps requested because frames became blurry. */
+    public long getSharpnessTriggerCount() {
+        return mSharpnessTriggerCount.get();
+    }
+
+    /** Number of sweeps requested because the brightness of the scene changed. */
+    public long getLuminanceTriggerCount() {
+        return mLuminanceTriggerCount.get();
+    }
+
+    /** Number of sweeps run by the fallback timer, see {@link #setFallbackInterval(long)}. */
+    public long getFallbackTriggerCount() {
+        return mFallbackTriggerCount.get();
+    }
+
+    private void requestAutoFocus(AtomicLong triggerCount) {
+        if (!mAutoFocusEnabled || mFocusing
+                || SystemClock.elapsedRealtime() - mLastTriggerTime < MIN_TRIGGER_INTERVAL_MILLIS) {
+            return;
+        }
+        if (mTriggerPending.compareAndSet(false, true)) {
+            triggerCount.incrementAndGet();
+            mHandler.post(mTriggerAutoFocus);
+        }
+    }
+
+    private synchronized void resetTriggers() {
+        mFailedFrames = 0;
+        mSharpnessReference = 0;
+        mBlurryFrames = 0;
+        mLuminanceBaseline = -1;
+    }
+
+    private void triggerAutoFocus() {
+        mTriggerPending.set(false);
+        Camera camera = mCamera;
+        if (camera == null || !mAutoFocusEnabled || mFocusing) {
+            return;
+        }
+        // Continuous modes lock the lens where it is on autoFocus() instead of sweeping
+        if (mContinuousFocusMode != null
+                && (!mAutoFocusSupported || !setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO))) {
+            return;
+        }
+        // Rescheduled when the sweep completes; also retries a sweep that fails to start
+        scheduleFallback();
+        try {
+            mFocusing = true;
+            mLastTriggerTime = SystemClock.elapsedRealtime();
+            mFoundSinceSweep = false;
+            camera.autoFocus(mAutoFocusCallback);
+            mAutoFocusCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            // Autofocus fails on some devices, see https://github.com/dm77/barcodescanner/issues/7;
+            // the next trigger tries again
+            Log.e(TAG, e.toString(), e);
+            mFocusing = false;
+            if (mContinuousFocusMode != null) {
+                resumeContinuousFocus();
+            }
+        }
+    }
+
+    private void scheduleFallback() {
+        mHandler.removeCallbacks(mFallbackAutoFocus);
+        long interval = mFallbackIntervalMillis;
+        if (interval > 0 && mContinuousFocusMode == null && mAutoFocusEnabled && mCamera != null) {
+            mHandler.postDelayed(mFallbackAutoFocus, interval);
+        }
+    }
+
+    private void resumeContinuousFocus() {
+        Camera camera = mCamera;
+        if (camera == null || !mAutoFocusEnabled) {
+            return;
+        }
+        try {
+            camera.cancelAutoFocus();
+        } catch (RuntimeException e) {
+            Log.e(TAG, e.toString(), e);
+        }
+        setFocusMode(mContinuousFocusMode);
+    }
+
+    private boolean setFocusMode(String focusMode) {
+        Camera camera = mCamera;
+        if (camera == null || focusMode == null) {
+            return false;
+        }
+        try {
+            synchronized (CameraPreview.PARAMETERS_LOCK) {
+                Camera.Parameters parameters = camera.getParameters();
+                if (!focusMode.equals(parameters.getFocusMode())) {
+                    parameters.setFocusMode(focusMode);
+                    camera.setParameters(parameters);
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, e.toString(), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package me.dm7.barcodescanner.core;
+
+/**
+ * Decodes preview frames on a decode thread. Every decode thread gets its own instance, so
+ * implementations may keep non thread-safe reader state without synchronization.
+ */
+public interface FrameDecoder {
+    /**
+     * @param frame preview frame to decode
+     * @return true if a code was found in the frame, whether or not it was delivered
+     */
+    boolean decode(PreviewFrame frame);
+}
@@ -0,0 +1,68 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * Measures the sharpness and the brightness of the framing rect of a preview frame, sampling a
+ * sparse grid of the luminance plane as delivered by the camera. Every decode thread has its own
+ * meter, so a meter is not thread-safe.
+ */
+public class FrameMeter {
+    private static final int SAMPLES_PER_SIDE = 48;
+
+    private boolean mMeasured;
+    private float mSharpness;
+    private float mLuminance;
+
+    /**
+     * @return false if the frame could not be measured because the view finder was not laid out
+     * yet
+     */
+    public boolean measure(PreviewFrame frame) {
+        CameraGeometry geometry = frame.getGeometry();
+        Rect area = geometry.getSensorFramingRect();
+        mMeasured = area != null && !area.isEmpty();
+        if (mMeasured) {
+            byte[] data = frame.getData();
+            int dataWidth = geometry.getPreviewWidth();
+            mSharpness = SharpnessFilter.estimateSharpness(data, dataWidth, area);
+            mLuminance = estimateLuminance(data, dataWidth, area);
+        }
+        return mMeasured;
+    }
+
+    /**
+     * @return mean luminance of a grid of points inside {@code area}, from 0 to 255
+     */
+    public static float estimateLuminance(byte[] data, int dataWidth, Rect area) {
+        int stepX = Math.max(1, area.width() / SAMPLES_PER_SIDE);
+        int stepY = Math.max(1, area.height() / SAMPLES_PER_SIDE);
+        long sum = 0;
+        int count = 0;
+        for (int y = area.top; y < area.bottom; y += stepY) {
+            int offset = y * dataWidth;
+            for (int x = area.left; x < area.right; x += stepX) {
+                sum += data[offset + x] & 0xFF;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (float) sum / count;
+    }
+
+    /**
+     * @return whether the last call to {@link #measure(PreviewFrame)} succeeded
+     */
+    public boolean isMeasured() {
+        return mMeasured;
+    }
+
+    /** Sharpness of the last measured frame, see {@link SharpnessFilter#estimateSharpness}. */
+    public float getSharpness() {
+        return mSharpness;
+    }
+
+    /** Mean luminance of the last measured frame, from 0 to 255. */
+    public float getLuminance() {
+        return mLuminance;
+    }
+}
@@ -13,6 +13,10 @@ import android.view.View;
 public class MyViewFinderView extends View implements IViewFinder {
     public static final int BORDER_STROKE_WIDTH = 12;
 
+    public interface OnFramingRectChangedListener {
+        void onFramingRectChanged(Rect framingRect);
+    }
+
     private static final String TAG = "MyViewFinderView";
 
     private Rect mFramingRect;
@@ -33,6 +37,7 @@ public class MyViewFinderView extends View implements IViewFinder {
     private float landscapeHeightRatio = DEFAULT_LANDSCAPE_HEIGHT_RATIO;
 
     private int topOffset;
+    private OnFramingRectChangedListener mFramingRectChangedListener;
 
     protected Paint mLaserPaint;
     protected Paint mFinderMaskPaint;
@@ -87,6 +92,14 @@ public class MyViewFinderView extends View implements IViewFinder {
 
     public void setTopOffset(int topOffset) {
         this.topOffset = topOffset;
+        if (mFramingRect != null) {
+            updateFramingRect();
+            invalidate();
+        }
+    }
+
+    public void setOnFramingRectChangedListener(OnFramingRectChangedListener listener) {
+        mFramingRectChangedListener = listener;
     }
 
     public void setupViewFinder() {
@@ -179,6 +192,9 @@ public class MyViewFinderView extends View implements IViewFinder {
         int leftOffset = (int) ((viewResolution.x - width) / 2);
         // int topOffset = (int) ((viewResolution.y - height) / 2.4);
         mFramingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
+        if (mFramingRectChangedListener != null) {
+            mFramingRectChangedListener.onFramingRectChanged(mFramingRect);
+        }
     }
 
     private static int findDesiredDimensionInRange(float ratio, int resolution, int hardMin, int hardMax) {
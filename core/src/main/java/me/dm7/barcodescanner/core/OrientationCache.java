@@ -0,0 +1,171 @@
+package me.dm7.barcodescanner.core;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.hardware.Camera;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.view.Surface;
+import android.view.WindowManager;
+
+/**
+ * <p>Caches the screen orientation, the display rotation and the orientation of the opened
+ * camera, so that they can be read cheaply and from any thread.</p>
+ *
+ * <p>Values are only recomputed when {@link #refresh()} or {@link #setCameraId(int)} is called,
+ * which the owner does from {@code onConfigurationChanged} and, on API 17+, from a display
+ * listener that also catches 180 degree rotations. Reads are a single volatile load.</p>
+ */
+public class OrientationCache {
+    private final Context mContext;
+    private volatile State mState;
+    private Object mDisplayListener;
+
+    private static final class State {
+        final int screenOrientation;
+        final int displayRotation;
+        final int cameraId;
+        final int cameraFacing;
+        final int cameraOrientation;
+
+        State(int screenOrientation, int displayRotation, int cameraId, int cameraFacing, int cameraOrientation) {
+            this.screenOrientation = screenOrientation;
+            this.displayRotation = displayRotation;
+            this.cameraId = cameraId;
+            this.cameraFacing = cameraFacing;
+            this.cameraOrientation = cameraOrientation;
+        }
+    }
+
+    public OrientationCache(Context context) {
+        mContext = context;
+        mState = new State(DisplayUtils.getScreenOrientation(context), queryDisplayRotation(context),
+                -1, Camera.CameraInfo.CAMERA_FACING_BACK, 90);
+    }
+
+    /**
+     * Re-reads the screen orientation and the display rotation.
+     */
+    public synchronized void refresh() {
+        State state = mState;
+        mState = new State(DisplayUtils.getScreenOrientation(mContext), queryDisplayRotation(mContext),
+                state.cameraId, state.cameraFacing, state.cameraOrientation);
+    }
+
+    /**
+     * Looks up the facing and the sensor orientation of the camera that is about to be opened.
+     *
+     * @param cameraId camera id as passed to {@link CameraUtils#getCameraInstance(int)}
+     */
+    public synchronized void setCameraId(int cameraId) {
+        int resolvedCameraId = CameraUtils.resolveCameraId(cameraId);
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(resolvedCameraId, info);
+        State state = mState;
+        mState = new State(state.screenOrientation, state.displayRotation, resolvedCameraId,
+                info.facing, info.orientation);
+    }
+
+    /**
+     * @return one of {@link Configuration#ORIENTATION_PORTRAIT}, {@code ORIENTATION_LANDSCAPE} or
+     * {@code ORIENTATION_SQUARE}
+     */
+    public int getScreenOrientation() {
+        return mState.screenOrientation;
+    }
+
+    public boolean isPortrait() {
+        return mState.screenOrientation == Configuration.ORIENTATION_PORTRAIT;
+    }
+
+    /**
+     * @return rotation of the display from its natural orientation, in degrees
+     */
+    public int getDisplayRotation() {
+        return mState.displayRotation;
+    }
+
+    /**
+     * @return id of the camera, or -1 if {@link #setCameraId(int)} was never called
+     */
+    public int getCameraId() {
+        return mState.cameraId;
+    }
+
+    public int getCameraFacing() {
+        return mState.cameraFacing;
+    }
+
+    /**
+     * @return value for {@link Camera#setDisplayOrientation(int)}, which for front cameras also
+     * compensates the mirrored preview
+     */
+    public int getDisplayOrientation() {
+        State state = mState;
+        return RotationUtils.getDisplayOrientation(state.cameraFacing, state.cameraOrientation, state.displayRotation);
+    }
+
+    /**
+     * @return clockwise rotation that turns an (unmirrored) preview frame upright on the screen
+     */
+    public int getFrameRotation() {
+        State state = mState;
+        return RotationUtils.getFrameRotation(state.cameraFacing, state.cameraOrientation, state.displayRotation);
+    }
+
+    /**
+     * Starts listening for display changes. On API levels below 17 the owner has to call
+     * {@link #refresh()} from {@code onConfigurationChanged} instead.
+     */
+    public void startListening() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && mDisplayListener == null) {
+            mDisplayListener = registerDisplayListener();
+        }
+        refresh();
+    }
+
+    public void stopListening() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && mDisplayListener != null) {
+            unregisterDisplayListener(mDisplayListener);
+            mDisplayListener = null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private Object registerDisplayListener() {
+        DisplayManager.DisplayListener listener = new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int displayId) {
+            }
+
+            @Override
+            public void onDisplayRemoved(int displayId) {
+            }
+
+            @Override
+            public void onDisplayChanged(int displayId) {
+                refresh();
+            }
+        };
+        DisplayManager displayManager = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.registerDisplayListener(listener, null);
+        return listener;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void unregisterDisplayListener(Object listener) {
+        DisplayManager displayManager = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.unregisterDisplayListener((DisplayManager.DisplayListener) listener);
+    }
+
+    private static int queryDisplayRotation(Context context) {
+        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        switch (wm.getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90: return 90;
+            case Surface.ROTATION_180: return 180;
+            case Surface.ROTATION_270: return 270;
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+
+/**
+ * Fixed ring of preview callback buffers fed to the camera through
+ * {@link Camera#addCallbackBuffer(byte[])}, so that steady-state scanning does not allocate a
+ * new frame buffer for every preview frame.
+ *
+ * <p>Buffers are (re)allocated only when the preview buffer size changes. The counters can be
+ * used to verify that no buffers are allocated once the preview is running.</p>
+ */
+public class PreviewBufferPool {
+    public static final int DEFAULT_POOL_SIZE = 3;
+
+    private static final int STATE_FREE = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_IN_USE = 2;
+
+    private final int mPoolSize;
+    private final byte[][] mBuffers;
+    private final PreviewFrame[] mFrames;
+    private final int[] mStates;
+    private int mBufferSize;
+    private Camera mCamera;
+
+    private long mAllocationCount;
+    private long mBufferMissCount;
+    private long mRecycledFrameCount;
+
+    public PreviewBufferPool() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public PreviewBufferPool(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        mPoolSize = poolSize;
+        mBuffers = new byte[poolSize][];
+        mFrames = new PreviewFrame[poolSize];
+        mStates = new int[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            mFrames[i] = new PreviewFrame();
+        }
+    }
+
+    /**
+     * Hands every buffer that is not currently being decoded to the camera. Must be called after
+     * {@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}.
+     *
+     * @param camera camera the buffers are queued on
+     * @param bufferSize size in bytes of a single preview frame
+     */
+    public synchronized void attach(Camera camera, int bufferSize) {
+        if (bufferSize != mBufferSize) {
+            for (int i = 0; i < mPoolSize; i++) {
+                mBuffers[i] = new byte[bufferSize];
+                mStates[i] = STATE_FREE;
+                mAllocationCount++;
+            }
+            mBufferSize = bufferSize;
+        }
+        mCamera = camera;
+        for (int i = 0; i < mPoolSize; i++) {
+            if (mStates[i] != STATE_IN_USE) {
+                mStates[i] = STATE_QUEUED;
+                camera.addCallbackBuffer(mBuffers[i]);
+            }
+        }
+    }
+
+    /**
+     * Forgets the camera the buffers were queued on. The camera drops its buffer queue when the
+     * preview callback is cleared, so queued buffers become free again.
+     */
+    public synchronized void detach() {
+        mCamera = null;
+        for (int i = 0; i < mPoolSize; i++) {
+            if (mStates[i] == STATE_QUEUED) {
+                mStates[i] = STATE_FREE;
+            }
+        }
+    }
+
+    /**
+     * Marks a buffer delivered by the camera as being decoded.
+     *
+     * @return the frame that belongs to the buffer, to be refilled and handed to the decoders, or
+     * null if the buffer does not belong to this pool (counted as a miss)
+     */
+    public synchronized PreviewFrame onFrame(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            mBufferMissCount++;
+            return null;
+        }
+        mStates[index] = STATE_IN_USE;
+        return mFrames[index];
+    }
+
+    /**
+     * Gives a decoded buffer back to the camera so it can be filled with the next frame. If the
+     * pool has been detached in the meantime, the buffer is kept until the next {@link #attach}.
+     */
+    public synchronized void requeue(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return;
+        }
+        mRecycledFrameCount++;
+        if (mCamera != null) {
+            mStates[index] = STATE_QUEUED;
+            mCamera.addCallbackBuffer(data);
+        } else {
+            mStates[index] = STATE_FREE;
+        }
+    }
+
+    /**
+     * Returns a decoded buffer to the pool without queuing it on the camera, e.g. after a result
+     * was found and the preview is about to be stopped.
+     */
+    public synchronized void recycle(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return;
+        }
+        mRecycledFrameCount++;
+        mStates[index] = STATE_FREE;
+    }
+
+    private int indexOf(byte[] data) {
+        if (data == null) {
+            return -1;
+        }
+        for (int i = 0; i < mPoolSize; i++) {
+            if (mBuffers[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getPoolSize() {
+        return mPoolSize;
+    }
+
+    public synchronized int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /** Total number of buffers allocated since the pool was created. */
+    public synchronized long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /** Number of frames delivered in a buffer that did not come from this pool. */
+    public synchronized long getBufferMissCount() {
+        return mBufferMissCount;
+    }
+
+    public synchronized long getRecycledFrameCount() {
+        return mRecycledFrameCount;
+    }
+}
@@ -0,0 +1,68 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+
+/**
+ * A single preview frame handed from the camera thread to the decode thread. In buffered frame
+ * mode every buffer of the {@link PreviewBufferPool} has one frame that is refilled each time the
+ * camera delivers the buffer, so a frame must not be used after its buffer was given back.
+ */
+public class PreviewFrame {
+    private byte[] mData;
+    private Camera mCamera;
+    private CameraGeometry mGeometry;
+    private long mSequence;
+    private boolean mFocusMoving;
+
+    PreviewFrame() {
+    }
+
+    public PreviewFrame(byte[] data, Camera camera, CameraGeometry geometry, long sequence) {
+        this(data, camera, geometry, sequence, false);
+    }
+
+    public PreviewFrame(byte[] data, Camera camera, CameraGeometry geometry, long sequence, boolean focusMoving) {
+        set(data, camera, geometry, sequence, focusMoving);
+    }
+
+    /**
+     * Refills a pooled frame. Called on the camera thread, before the frame is handed over.
+     */
+    PreviewFrame set(byte[] data, Camera camera, CameraGeometry geometry, long sequence, boolean focusMoving) {
+        mData = data;
+        mCamera = camera;
+        mGeometry = geometry;
+        mSequence = sequence;
+        mFocusMoving = focusMoving;
+        return this;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public Camera getCamera() {
+        return mCamera;
+    }
+
+    /**
+     * @return camera geometry snapshot taken when the preview that produced this frame started
+     */
+    public CameraGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * @return position of this frame in the order the camera delivered frames
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return true if the lens was moving when the frame was captured, so that it is likely blurry
+     */
+    public boolean isFocusMoving() {
+        return mFocusMoving;
+    }
+}
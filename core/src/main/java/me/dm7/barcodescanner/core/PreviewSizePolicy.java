@@ -0,0 +1,26 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+
+import java.util.List;
+
+/**
+ * Picks the preview size when the preview is started, see
+ * {@link BarcodeScannerView#setPreviewSizePolicy(PreviewSizePolicy)}.
+ */
+public interface PreviewSizePolicy {
+    /**
+     * All sizes are given in sensor orientation, i.e. landscape for most cameras.
+     *
+     * @param sizes preview sizes supported by the camera
+     * @param viewWidth width of the view showing the preview
+     * @param viewHeight height of the view showing the preview
+     * @param framingWidthRatio width of the framing rect as a fraction of the view width, or 1 if
+     *                          the view finder has not been laid out yet
+     * @param framingHeightRatio height of the framing rect as a fraction of the view height, or 1
+     *                           if the view finder has not been laid out yet
+     * @return one of {@code sizes}, or null to pick the size closest to the view size
+     */
+    Camera.Size selectPreviewSize(List<Camera.Size> sizes, int viewWidth, int viewHeight,
+                                  float framingWidthRatio, float framingHeightRatio);
+}
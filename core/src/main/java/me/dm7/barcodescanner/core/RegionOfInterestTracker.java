@@ -0,0 +1,173 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * <p>Remembers where the last code was found, so that the next frames are decoded in a window
+ * around that spot instead of the whole scan area. The window is the bounds of the last code,
+ * padded on every side by a fraction of its larger dimension and clipped to the scan area.</p>
+ *
+ * <p>After a number of frames in a row where nothing is found in the window, the tracker gives up
+ * and frames are decoded in the whole scan area again until the next hit.</p>
+ *
+ * <p>Thread-safe; one tracker is shared by all decode threads of a scanner view.</p>
+ */
+public class RegionOfInterestTracker {
+    public static final float DEFAULT_PADDING = 0.5f;
+    public static final int DEFAULT_MAX_MISSES = 3;
+
+    private final float mPadding;
+    private final int mMaxMisses;
+
+    private final Rect mBounds = new Rect();
+    private boolean mTracking;
+    private int mMisses;
+
+    private long mWindowFrameCount;
+    private long mWindowHitCount;
+    private long mWindowDecodeTimeNanos;
+    private long mFullFrameCount;
+    private long mFullHitCount;
+    private long mFullDecodeTimeNanos;
+
+    public RegionOfInterestTracker() {
+        this(DEFAULT_PADDING, DEFAULT_MAX_MISSES);
+    }
+
+    /**
+     * @param padding space added around the last code on every side, as a fraction of its larger
+     *                dimension
+     * @param maxMisses number of frames in a row without a result before the whole scan area is
+     *                  decoded again
+     */
+    public RegionOfInterestTracker(float padding, int maxMisses) {
+        if (padding < 0) {
+            throw new IllegalArgumentException("padding must not be negative");
+        }
+        if (maxMisses < 1) {
+            throw new IllegalArgumentException("maxMisses must be at least 1");
+        }
+        mPadding = padding;
+        mMaxMisses = maxMisses;
+    }
+
+    /**
+     * Computes the window the next frame should be decoded in.
+     *
+     * @param scanArea the whole area that would be decoded otherwise
+     * @param window receives the window, in the same coordinates as {@code scanArea}
+     * @return false if there is nothing to track and the whole scan area should be decoded
+     */
+    public synchronized boolean getWindow(Rect scanArea, Rect window) {
+        if (!mTracking) {
+            return false;
+        }
+        int pad = (int) (Math.max(mBounds.width(), mBounds.height()) * mPadding);
+        window.set(mBounds.left - pad, mBounds.top - pad, mBounds.right + pad, mBounds.bottom + pad);
+        if (!window.intersect(scanArea) || window.equals(scanArea)) {
+            // The code was outside of the scan area, e.g. after a rotation, or the window would
+            // not save anything
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports the outcome of decoding a frame.
+     *
+     * @param windowed whether the frame was decoded in the window from {@link #getWindow}
+     * @param hit whether a code was found
+     * @param bounds bounds of the codes that were found, in the coordinates of the scan area, or
+     *               null if nothing was found or the location is unknown
+     * @param decodeTimeNanos time spent decoding the frame
+     */
+    public synchronized void onFrameDecoded(boolean windowed, boolean hit, Rect bounds, long decodeTimeNanos) {
+        if (windowed) {
+            mWindowFrameCount++;
+            mWindowDecodeTimeNanos += decodeTimeNanos;
+        } else {
+            mFullFrameCount++;
+            mFullDecodeTimeNanos += decodeTimeNanos;
+        }
+        if (!hit) {
+            if (mTracking && ++mMisses >= mMaxMisses) {
+                mTracking = false;
+            }
+            return;
+        }
+        if (windowed) {
+            mWindowHitCount++;
+        } else {
+            mFullHitCount++;
+        }
+        mMisses = 0;
+        if (bounds != null) {
+            // A 1D code found on a single scan line has no height, so keep at least one row
+            mBounds.set(bounds.left, bounds.top, Math.max(bounds.right, bounds.left + 1),
+                    Math.max(bounds.bottom, bounds.top + 1));
+            mTracking = true;
+        }
+        // Found, but without a location: keep the current window
+    }
+
+    /**
+     * Forgets the last location, e.g. when the camera is stopped.
+     */
+    public synchronized void reset() {
+        mTracking = false;
+        mMisses = 0;
+    }
+
+    public synchronized boolean isTracking() {
+        return mTracking;
+    }
+
+    public float getPadding() {
+        return mPadding;
+    }
+
+    public int getMaxMisses() {
+        return mMaxMisses;
+    }
+
+    /** Number of frames decoded in a window around the last code. */
+    public synchronized long getWindowFrameCount() {
+        return mWindowFrameCount;
+    }
+
+    /** Number of frames decoded in a window that produced a result. */
+    public synchronized long getWindowHitCount() {
+        return mWindowHitCount;
+    }
+
+    /** Number of frames decoded in the whole scan area. */
+    public synchronized long getFullFrameCount() {
+        return mFullFrameCount;
+    }
+
+    /** Number of frames decoded in the whole scan area that produced a result. */
+    public synchronized long getFullHitCount() {
+        return mFullHitCount;
+    }
+
+    /**
+     * @return fraction of windowed frames that produced a result
+     */
+    public synchronized float getWindowHitRate() {
+        return mWindowFrameCount == 0 ? 0 : (float) mWindowHitCount / mWindowFrameCount;
+    }
+
+    /**
+     * @return average time spent decoding a frame in a window, in nanoseconds
+     */
+    public synchronized long getAverageWindowDecodeTimeNanos() {
+        return mWindowFrameCount == 0 ? 0 : mWindowDecodeTimeNanos / mWindowFrameCount;
+    }
+
+    /**
+     * @return average time spent decoding a frame in the whole scan area, in nanoseconds
+     */
+    public synchronized long getAverageFullDecodeTimeNanos() {
+        return mFullFrameCount == 0 ? 0 : mFullDecodeTimeNanos / mFullFrameCount;
+    }
+}
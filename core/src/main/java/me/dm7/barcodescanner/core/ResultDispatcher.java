@@ -0,0 +1,180 @@
+package me.dm7.barcodescanner.core;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Hands results from the decode threads to the main thread. Results are put in a fixed-size
+ * lock-free ring, and all results that arrive within one frame are delivered together in a
+ * single main-thread pass, scheduled for the next vsync on API 16+. Dispatching a result does not
+ * allocate: there is one handler and one runnable for the lifetime of the dispatcher.</p>
+ *
+ * <p>When the ring is full the new result is dropped and counted, so a stalled main thread never
+ * blocks a decode thread. Only a burst of continuous-scanning results can fill the ring: a
+ * single-shot scan claims one result per preview.</p>
+ */
+public class ResultDispatcher {
+    public static final int DEFAULT_CAPACITY = 16;
+
+    public interface Receiver {
+        /**
+         * Called on the main thread for every dispatched result, in dispatch order.
+         *
+         * @param flags the flags passed to {@link ResultDispatcher#dispatch(Object, int)}
+         */
+        public void onResult(Object result, int flags);
+    }
+
+    private final Receiver mReceiver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mMask;
+    private final Object[] mResults;
+    private final int[] mFlags;
+    // Vyukov-style slot sequence numbers: a slot is free for position p when its sequence is p,
+    // and holds the result for position p when its sequence is p + 1
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    private long mHead;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private Object mFrameCallback;
+
+    private final AtomicLong mDispatchCount = new AtomicLong();
+    private final AtomicLong mDrainCount = new AtomicLong();
+    private final AtomicLong mDropCount = new AtomicLong();
+
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postFrameCallback();
+            } else {
+                drain();
+            }
+        }
+    };
+
+    public ResultDispatcher(Receiver receiver) {
+        this(receiver, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of results that can wait for the main thread, rounded up to a power
+     *                 of two
+     */
+    public ResultDispatcher(Receiver receiver, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mReceiver = receiver;
+        mMask = size - 1;
+        mResults = new Object[size];
+        mFlags = new int[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Queues a result for the main thread. Can be called from any thread.
+     *
+     * @return false if the ring was full and the result was dropped
+     */
+    public boolean dispatch(Object result, int flags) {
+        boolean queued = offer(result, flags);
+        if (queued) {
+            mDispatchCount.incrementAndGet();
+        } else {
+            mDropCount.incrementAndGet();
+        }
+        // When full, the main thread drains the ring on its next pass
+        schedule();
+        return queued;
+    }
+
+    private boolean offer(Object result, int flags) {
+        while (true) {
+            long position = mTail.get();
+            int index = (int) (position & mMask);
+            long difference = mSequences.get(index) - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    mResults[index] = result;
+                    mFlags[index] = flags;
+                    mSequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            // Another thread took this position; retry with the next one
+        }
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mHandler.post(mScheduleRunnable);
+        }
+    }
+
+    /**
+     * Delivers every queued result. Runs on the main thread only.
+     */
+    private void drain() {
+        // Results queued from here on schedule another pass
+        mScheduled.set(false);
+        mDrainCount.incrementAndGet();
+        while (true) {
+            long position = mHead;
+            int index = (int) (position & mMask);
+            if (mSequences.get(index) != position + 1) {
+                return;
+            }
+            Object result = mResults[index];
+            int flags = mFlags[index];
+            mResults[index] = null;
+            mSequences.set(index, position + mMask + 1);
+            mHead = position + 1;
+            mReceiver.onResult(result, flags);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    drain();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    /** Number of results dispatched so far. */
+    public long getDispatchCount() {
+        return mDispatchCount.get();
+    }
+
+    /** Number of results dropped because the ring was full. */
+    public long getDropCount() {
+        return mDropCount.get();
+    }
+
+    /** Number of main-thread passes that delivered results; lower than the dispatch count when results were coalesced. */
+    public long getDrainCount() {
+        return mDrainCount.get();
+    }
+}
@@ -0,0 +1,232 @@
+package me.dm7.barcodescanner.core;
+
+/**
+ * <p>Suppresses results that were already seen recently. Codes are keyed on their format and
+ * contents and remembered for a time-to-live that restarts with every sighting, so a code that
+ * stays in front of the camera is only let through once.</p>
+ *
+ * <p>The filter holds at most {@code capacity} codes; when it is full the least recently seen
+ * code is evicted. All storage is allocated up front and lookups do not allocate. The counters
+ * can be used to size the filter: evictions of codes that had not expired yet mean the filter is
+ * too small for the session.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+public class ResultFilter {
+    private static final int NONE = -1;
+
+    private final int mCapacity;
+    private final long mTtlMillis;
+
+    private final Object[] mFormats;
+    private final String[] mContents;
+    private final int[] mHashes;
+    private final long[] mExpiryTimes;
+
+    // Hash buckets: first entry of each bucket, then the next entry of the same bucket
+    private final int[] mBuckets;
+    private final int[] mChainNext;
+
+    // Recency list from mHead (most recently seen) to mTail (least recently seen)
+    private final int[] mPrevious;
+    private final int[] mNext;
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mSize;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param capacity maximum number of codes to remember
+     * @param ttlMillis how long a code is suppressed after it was last seen
+     */
+    public ResultFilter(int capacity, long ttlMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+        mCapacity = capacity;
+        mTtlMillis = ttlMillis;
+        mFormats = new Object[capacity];
+        mContents = new String[capacity];
+        mHashes = new int[capacity];
+        mExpiryTimes = new long[capacity];
+        mChainNext = new int[capacity];
+        mPrevious = new int[capacity];
+        mNext = new int[capacity];
+        int bucketCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        mBuckets = new int[bucketCount];
+        clear();
+    }
+
+    /**
+     * Records a sighting of a code.
+     *
+     * @param format format of the code, compared with {@link Object#equals(Object)}
+     * @param contents decoded contents of the code
+     * @param now current time in milliseconds, e.g. {@code SystemClock.elapsedRealtime()}
+     * @return true if the code was not seen within the time-to-live and should be delivered
+     */
+    public synchronized boolean accept(Object format, String contents, long now) {
+        int hash = hash(format, contents);
+        int index = find(hash, format, contents);
+        if (index != NONE) {
+            boolean expired = mExpiryTimes[index] <= now;
+            mExpiryTimes[index] = now + mTtlMillis;
+            moveToFront(index);
+            if (expired) {
+                mMissCount++;
+                return true;
+            }
+            mHitCount++;
+            return false;
+        }
+
+        mMissCount++;
+        if (mSize == mCapacity) {
+            index = mTail;
+            if (mExpiryTimes[index] > now) {
+                mEvictionCount++;
+            }
+            unlinkBucket(index);
+            unlinkRecency(index);
+        } else {
+            index = mSize++;
+        }
+        mFormats[index] = format;
+        mContents[index] = contents;
+        mHashes[index] = hash;
+        mExpiryTimes[index] = now + mTtlMillis;
+        int bucket = hash & (mBuckets.length - 1);
+        mChainNext[index] = mBuckets[bucket];
+        mBuckets[bucket] = index;
+        linkFront(index);
+        return true;
+    }
+
+    /**
+     * Checks a sighting of a code without recording a code that was not seen before. A code seen
+     * within the time-to-live is a duplicate, and this sighting restarts its time-to-live as with
+     * {@link #accept(Object, String, long)}. Any other code is left for {@code accept} to record
+     * once it was actually delivered.
+     *
+     * @return true if the code was seen within the time-to-live and should not be delivered
+     */
+    public synchronized boolean isDuplicate(Object format, String contents, long now) {
+        int index = find(hash(format, contents), format, contents);
+        if (index == NONE || mExpiryTimes[index] <= now) {
+            return false;
+        }
+        mExpiryTimes[index] = now + mTtlMillis;
+        moveToFront(index);
+        mHitCount++;
+        return true;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = NONE;
+        }
+        for (int i = 0; i < mCapacity; i++) {
+            mFormats[i] = null;
+            mContents[i] = null;
+        }
+        mHead = NONE;
+        mTail = NONE;
+        mSize = 0;
+    }
+
+    private static int hash(Object format, String contents) {
+        int hash = 31 * (format != null ? format.hashCode() : 0) + contents.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private int find(int hash, Object format, String contents) {
+        for (int i = mBuckets[hash & (mBuckets.length - 1)]; i != NONE; i = mChainNext[i]) {
+            if (mHashes[i] == hash && contents.equals(mContents[i])
+                    && (format == null ? mFormats[i] == null : format.equals(mFormats[i]))) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private void unlinkBucket(int index) {
+        int bucket = mHashes[index] & (mBuckets.length - 1);
+        if (mBuckets[bucket] == index) {
+            mBuckets[bucket] = mChainNext[index];
+            return;
+        }
+        for (int i = mBuckets[bucket]; i != NONE; i = mChainNext[i]) {
+            if (mChainNext[i] == index) {
+                mChainNext[i] = mChainNext[index];
+                return;
+            }
+        }
+    }
+
+    private void moveToFront(int index) {
+        if (mHead != index) {
+            unlinkRecency(index);
+            linkFront(index);
+        }
+    }
+
+    private void unlinkRecency(int index) {
+        int previous = mPrevious[index];
+        int next = mNext[index];
+        if (previous != NONE) {
+            mNext[previous] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrevious[next] = previous;
+        } else {
+            mTail = previous;
+        }
+    }
+
+    private void linkFront(int index) {
+        mPrevious[index] = NONE;
+        mNext[index] = mHead;
+        if (mHead != NONE) {
+            mPrevious[mHead] = index;
+        }
+        mHead = index;
+        if (mTail == NONE) {
+            mTail = index;
+        }
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getTtlMillis() {
+        return mTtlMillis;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /** Number of sightings that were suppressed as duplicates. */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** Number of sightings that were let through. */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /** Number of codes that were evicted to make room before their time-to-live was over. */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+}
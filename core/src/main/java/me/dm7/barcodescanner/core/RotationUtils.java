@@ -0,0 +1,162 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+import android.hardware.Camera;
+
+/**
+ * Rotates the luminance (Y) plane of preview frames.
+ *
+ * <p>90 and 270 degree rotations are transposes, which write one column per source row when done
+ * naively. The kernels below walk the destination in order instead, one source column at a time,
+ * so every write lands next to the previous one.</p>
+ */
+public class RotationUtils {
+    /**
+     * Rotates the {@code width} x {@code height} luminance plane of {@code src} clockwise.
+     *
+     * @param dst buffer to rotate into; reused if it holds at least {@code width * height} bytes,
+     *            otherwise a new buffer is allocated
+     * @param degrees 0, 90, 180 or 270
+     * @return the buffer holding the rotated plane; {@code src} itself when degrees is 0
+     */
+    public static byte[] rotate(byte[] src, int width, int height, int degrees, byte[] dst) {
+        if (degrees == 0) {
+            return src;
+        }
+        return rotateCrop(src, width, 0, 0, width, height, degrees, dst);
+    }
+
+    /**
+     * Rotates only the {@code cropWidth} x {@code cropHeight} window at ({@code cropLeft},
+     * {@code cropTop}) of the luminance plane clockwise. The result is a tightly packed plane of
+     * {@link #getRotatedWidth} x {@link #getRotatedHeight} of the crop size.
+     *
+     * @param dataWidth row stride of {@code src}
+     * @param dst buffer to rotate into; reused if it holds at least
+     *            {@code cropWidth * cropHeight} bytes, otherwise a new buffer is allocated
+     * @param degrees 0, 90, 180 or 270
+     * @return the buffer holding the rotated window
+     */
+    public static byte[] rotateCrop(byte[] src, int dataWidth, int cropLeft, int cropTop,
+                                    int cropWidth, int cropHeight, int degrees, byte[] dst) {
+        int size = cropWidth * cropHeight;
+        if (dst == null || dst.length < size) {
+            dst = new byte[size];
+        }
+        int offset = cropTop * dataWidth + cropLeft;
+        switch (degrees) {
+            case 0:
+                for (int y = 0; y < cropHeight; y++) {
+                    System.arraycopy(src, offset + y * dataWidth, dst, y * cropWidth, cropWidth);
+                }
+                break;
+            case 90:
+                rotate90(src, dataWidth, offset, cropWidth, cropHeight, dst);
+                break;
+            case 180:
+                rotate180(src, dataWidth, offset, cropWidth, cropHeight, dst);
+                break;
+            case 270:
+                rotate270(src, dataWidth, offset, cropWidth, cropHeight, dst);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported rotation: " + degrees);
+        }
+        return dst;
+    }
+
+    /**
+     * Maps a rect given in the coordinates of the rotated frame back into the coordinates of the
+     * {@code width} x {@code height} frame delivered by the camera.
+     *
+     * @param degrees clockwise rotation that was (or would be) applied to the camera frame
+     */
+    public static Rect toSensorRect(Rect rotatedRect, int width, int height, int degrees) {
+        Rect r = rotatedRect;
+        switch (degrees) {
+            case 0:
+                return new Rect(r);
+            case 90:
+                return new Rect(r.top, height - r.right, r.bottom, height - r.left);
+            case 180:
+                return new Rect(width - r.right, height - r.bottom, width - r.left, height - r.top);
+            case 270:
+                return new Rect(width - r.bottom, r.left, width - r.top, r.right);
+            default:
+                throw new IllegalArgumentException("Unsupported rotation: " + degrees);
+        }
+    }
+
+    /**
+     * @param cameraFacing {@link Camera.CameraInfo#CAMERA_FACING_BACK} or {@code CAMERA_FACING_FRONT}
+     * @param cameraOrientation {@link Camera.CameraInfo#orientation}
+     * @param displayRotation rotation of the display in degrees
+     * @return value for {@link Camera#setDisplayOrientation(int)}
+     */
+    public static int getDisplayOrientation(int cameraFacing, int cameraOrientation, int displayRotation) {
+        if (cameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            int result = (cameraOrientation + displayRotation) % 360;
+            return (360 - result) % 360;  // compensate the mirror
+        }
+        return (cameraOrientation - displayRotation + 360) % 360;
+    }
+
+    /**
+     * Front camera previews are mirrored and then rotated by the display orientation, but the
+     * frames handed to decoders are not mirrored. Mirroring the upright preview back turns its
+     * clockwise rotation into a counter-clockwise one, so the frame needs the opposite of the
+     * display orientation.
+     *
+     * @return clockwise rotation that turns an (unmirrored) preview frame upright on the screen
+     */
+    public static int getFrameRotation(int cameraFacing, int cameraOrientation, int displayRotation) {
+        int displayOrientation = getDisplayOrientation(cameraFacing, cameraOrientation, displayRotation);
+        if (cameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            return (360 - displayOrientation) % 360;  // undo the mirror
+        }
+        return displayOrientation;
+    }
+
+    /**
+     * @return rotated width for a frame of the given size
+     */
+    public static int getRotatedWidth(int width, int height, int degrees) {
+        return degrees % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return rotated height for a frame of the given size
+     */
+    public static int getRotatedHeight(int width, int height, int degrees) {
+        return degrees % 180 == 0 ? height : width;
+    }
+
+    private static void rotate90(byte[] src, int stride, int offset, int width, int height, byte[] dst) {
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = height - 1; y >= 0; y--) {
+                dst[i++] = src[offset + y * stride + x];
+            }
+        }
+    }
+
+    private static void rotate180(byte[] src, int stride, int offset, int width, int height, byte[] dst) {
+        int last = width * height - 1;
+        for (int y = 0; y < height; y++) {
+            int srcOffset = offset + y * stride;
+            int dstOffset = last - y * width;
+            for (int x = 0; x < width; x++) {
+                dst[dstOffset - x] = src[srcOffset + x];
+            }
+        }
+    }
+
+    private static void rotate270(byte[] src, int stride, int offset, int width, int height, byte[] dst) {
+        int i = 0;
+        for (int x = width - 1; x >= 0; x--) {
+            for (int y = 0; y < height; y++) {
+                dst[i++] = src[offset + y * stride + x];
+            }
+        }
+    }
+}
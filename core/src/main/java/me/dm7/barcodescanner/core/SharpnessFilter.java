@@ -0,0 +1,180 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Skips frames that are too blurry to decode, e.g. while the camera is moved or the lens is
+ * still focusing, before any time is spent decoding them.</p>
+ *
+ * <p>Sharpness is estimated as the variance of the Laplacian of the luminance plane subsampled by
+ * two, at a grid of about {@value #SAMPLES_PER_SIDE} x {@value #SAMPLES_PER_SIDE} points inside
+ * the framing rect. Since the right value depends on the scene and the lighting, the threshold is
+ * a fraction of the sharpest recent frame, which decays with a half-life in time, so that a darker
+ * or flatter scene is let through again after a while however many decode threads check frames.</p>
+ *
+ * <p>One filter is shared by all decode threads of a scanner view, and holds the baseline of the
+ * current camera stream: the view resets it whenever the camera stops. Checking a frame takes no
+ * lock; the sharpest frame and its time are packed into a single atomic word that is only written
+ * when a frame beats the decayed baseline.</p>
+ */
+public class SharpnessFilter {
+    public static final float DEFAULT_THRESHOLD_RATIO = 0.35f;
+    /** About 14 frames at 30 fps, like the per-frame decay of 0.95 this replaced. */
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 450;
+
+    private static final int SAMPLES_PER_SIDE = 48;
+    // Distance to the neighbours in the Laplacian. Adjacent pixels mostly measure sensor noise,
+    // since the optics already blur edges over a pixel or two
+    private static final int LAPLACIAN_STEP = 2;
+
+    private final float mThresholdRatio;
+    private final long mHalfLifeMillis;
+
+    // Sharpest frame of the stream as float bits in the high half, the low 32 bits of its
+    // elapsedRealtime() in the low half
+    private final AtomicLong mPeak = new AtomicLong();
+    private volatile float mLastSharpness;
+    private final AtomicLong mAcceptedFrameCount = new AtomicLong();
+    private final AtomicLong mSkippedFrameCount = new AtomicLong();
+
+    public SharpnessFilter() {
+        this(DEFAULT_THRESHOLD_RATIO, DEFAULT_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * @param thresholdRatio frames less sharp than this fraction of the sharpest recent frame are
+     *                       skipped
+     * @param halfLifeMillis time after which the sharpest recent value counts half
+     */
+    public SharpnessFilter(float thresholdRatio, long halfLifeMillis) {
+        if (thresholdRatio < 0 || thresholdRatio >= 1) {
+            throw new IllegalArgumentException("thresholdRatio must be in [0, 1)");
+        }
+        if (halfLifeMillis < 1) {
+            throw new IllegalArgumentException("halfLifeMillis must be at least 1");
+        }
+        mThresholdRatio = thresholdRatio;
+        mHalfLifeMillis = halfLifeMillis;
+    }
+
+    /**
+     * Updates the threshold with the sharpness of a frame and decides whether to decode it.
+     *
+     * @return false if the frame should be skipped
+     */
+    public boolean accept(float sharpness) {
+        return accept(sharpness, SystemClock.elapsedRealtime());
+    }
+
+    boolean accept(float sharpness, long nowMillis) {
+        mLastSharpness = sharpness;
+        long peak = mPeak.get();
+        float reference = decayedPeak(peak, nowMillis);
+        while (sharpness > reference) {
+            if (mPeak.compareAndSet(peak, pack(sharpness, nowMillis))) {
+                reference = sharpness;
+                break;
+            }
+            // Another decode thread measured a frame at the same time
+            peak = mPeak.get();
+            reference = decayedPeak(peak, nowMillis);
+        }
+        if (sharpness < reference * mThresholdRatio) {
+            mSkippedFrameCount.incrementAndGet();
+            return false;
+        }
+        mAcceptedFrameCount.incrementAndGet();
+        return true;
+    }
+
+    private static long pack(float sharpness, long timeMillis) {
+        return ((long) Float.floatToIntBits(sharpness) << 32) | (timeMillis & 0xFFFFFFFFL);
+    }
+
+    private float decayedPeak(long peak, long nowMillis) {
+        float sharpness = Float.intBitsToFloat((int) (peak >>> 32));
+        // Wraps correctly for ages below 24 days
+        int age = (int) nowMillis - (int) peak;
+        if (sharpness == 0 || age <= 0) {
+            return sharpness;
+        }
+        return (float) (sharpness * Math.pow(0.5, (double) age / mHalfLifeMillis));
+    }
+
+    /**
+     * Estimates sharpness as the variance of the 4-neighbour Laplacian of the luminance plane
+     * subsampled by two, sampled at a grid of points inside {@code area}.
+     *
+     * @param dataWidth row stride of {@code data}
+     */
+    public static float estimateSharpness(byte[] data, int dataWidth, Rect area) {
+        return estimateSharpness(data, dataWidth, area.left, area.top, area.right, area.bottom);
+    }
+
+    /**
+     * Same as {@link #estimateSharpness(byte[], int, Rect)} for the area from ({@code areaLeft},
+     * {@code areaTop}) inclusive to ({@code areaRight}, {@code areaBottom}) exclusive.
+     */
+    public static float estimateSharpness(byte[] data, int dataWidth, int areaLeft, int areaTop,
+                                          int areaRight, int areaBottom) {
+        int d = LAPLACIAN_STEP;
+        int left = Math.max(areaLeft, d);
+        int top = Math.max(areaTop, d);
+        int right = areaRight - d;
+        int bottom = areaBottom - d;
+        if (right <= left || bottom <= top) {
+            return 0;
+        }
+        int stepX = Math.max(1, (right - left) / SAMPLES_PER_SIDE);
+        int stepY = Math.max(1, (bottom - top) / SAMPLES_PER_SIDE);
+        long sum = 0;
+        long sumOfSquares = 0;
+        int count = 0;
+        for (int y = top; y < bottom; y += stepY) {
+            int offset = y * dataWidth;
+            for (int x = left; x < right; x += stepX) {
+                int i = offset + x;
+                int laplacian = 4 * (data[i] & 0xFF) - (data[i - d] & 0xFF) - (data[i + d] & 0xFF)
+                        - (data[i - d * dataWidth] & 0xFF) - (data[i + d * dataWidth] & 0xFF);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        float mean = (float) sum / count;
+        return (float) sumOfSquares / count - mean * mean;
+    }
+
+    /**
+     * @return current threshold; frames less sharp than this are skipped
+     */
+    public float getThreshold() {
+        return decayedPeak(mPeak.get(), SystemClock.elapsedRealtime()) * mThresholdRatio;
+    }
+
+    /**
+     * @return sharpness of the last frame that was checked
+     */
+    public float getLastSharpness() {
+        return mLastSharpness;
+    }
+
+    public long getAcceptedFrameCount() {
+        return mAcceptedFrameCount.get();
+    }
+
+    /** Number of frames that were skipped as too blurry. */
+    public long getSkippedFrameCount() {
+        return mSkippedFrameCount.get();
+    }
+
+    /**
+     * Forgets the sharpest recent frame, so the next camera stream starts a new baseline.
+     */
+    public void reset() {
+        mPeak.set(0);
+    }
+}
@@ -0,0 +1,118 @@
+package me.dm7.barcodescanner.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Decoded frames per second of a {@link DecodeThreadPool} with 1 up to N decode threads, where N is
+ * the number of processors but at least 4. Frames are submitted through {@link
+ * DecodeThreadPool#submit(PreviewFrame)} every millisecond, faster than they can be decoded, and
+ * every {@link DecodeThread} decodes with its own MultiFormatReader. Half of the frames hold a QR
+ * code, the rest are noise, which is the expensive case since every reader runs to the end.
+ * Skipped unless run with {@code -Dbenchmark=true}. Only meaningful on a multi-core host.
+ */
+public class DecodeThreadPoolBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final long WARMUP_MILLIS = 2000;
+    private static final long MEASURE_MILLIS = 5000;
+
+    @Test
+    public void decodedFramesPerSecond() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        byte[][] frames = {qrFrame(), noiseFrame()};
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println("available processors: " + processors);
+        for (int threadCount = 1; threadCount <= Math.max(4, processors); threadCount++) {
+            run(frames, threadCount, WARMUP_MILLIS);
+            int decoded = run(frames, threadCount, MEASURE_MILLIS);
+            System.out.println(String.format("%d decode thread(s): %.1f frames/s", threadCount,
+                    decoded * 1000.0 / MEASURE_MILLIS));
+        }
+    }
+
+    private static int run(byte[][] frames, int threadCount, long millis) throws Exception {
+        final AtomicInteger decoded = new AtomicInteger();
+        DecodeThreadPool pool = new DecodeThreadPool(new DecodeThreadPool.Host() {
+            @Override
+            public FrameDecoder createFrameDecoder() {
+                return new ReaderDecoder();
+            }
+
+            @Override
+            public void onFrameTaken(PreviewFrame frame) {
+            }
+
+            @Override
+            public void onFrameDecode(FrameDecoder frameDecoder, FrameMeter frameMeter, PreviewFrame frame) {
+                frameDecoder.decode(frame);
+                decoded.incrementAndGet();
+            }
+
+            @Override
+            public void onFrameDropped(PreviewFrame frame) {
+            }
+        }, threadCount);
+        long end = System.currentTimeMillis() + millis;
+        long sequence = 0;
+        while (System.currentTimeMillis() < end) {
+            pool.submit(new PreviewFrame(frames[(int) (sequence % frames.length)], null, null, sequence++));
+            Thread.sleep(1);
+        }
+        int count = decoded.get();
+        pool.quit();
+        return count;
+    }
+
+    private static class ReaderDecoder implements FrameDecoder {
+        private final MultiFormatReader mReader = new MultiFormatReader();
+
+        @Override
+        public boolean decode(PreviewFrame frame) {
+            try {
+                mReader.decodeWithState(new BinaryBitmap(new HybridBinarizer(new PlanarYUVLuminanceSource(
+                        frame.getData(), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, false))));
+                return true;
+            } catch (ReaderException e) {
+                return false;
+            } finally {
+                mReader.reset();
+            }
+        }
+    }
+
+    private static byte[] qrFrame() throws Exception {
+        BitMatrix code = new QRCodeWriter().encode("DecodeThreadPoolBenchmark", BarcodeFormat.QR_CODE, 300, 300);
+        byte[] frame = noiseFrame();
+        int left = (WIDTH - code.getWidth()) / 2;
+        int top = (HEIGHT - code.getHeight()) / 2;
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                frame[(top + y) * WIDTH + left + x] = code.get(x, y) ? (byte) 30 : (byte) 220;
+            }
+        }
+        return frame;
+    }
+
+    private static byte[] noiseFrame() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Random random = new Random(5);
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (100 + random.nextInt(60));
+        }
+        return frame;
+    }
+}
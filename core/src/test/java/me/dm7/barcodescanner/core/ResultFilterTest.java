@@ -0,0 +1,164 @@
+package me.dm7.barcodescanner.core;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResultFilterTest {
+    private static final String QR = "QR_CODE";
+    private static final String EAN = "EAN_13";
+
+    @Test
+    public void suppressesCodeWithinTtl() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        assertTrue(filter.accept(QR, "a", 0));
+        assertFalse(filter.accept(QR, "a", 99));
+        assertEquals(1, filter.getHitCount());
+        assertEquals(1, filter.getMissCount());
+    }
+
+    @Test
+    public void acceptsCodeAgainAfterTtl() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        assertTrue(filter.accept(QR, "a", 0));
+        assertTrue(filter.accept(QR, "a", 100));
+        assertEquals(0, filter.getHitCount());
+        assertEquals(1, filter.size());
+    }
+
+    @Test
+    public void sightingRestartsTtl() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        assertTrue(filter.accept(QR, "a", 0));
+        assertFalse(filter.accept(QR, "a", 80));
+        // Would have expired at 100 without the sighting at 80
+        assertFalse(filter.accept(QR, "a", 150));
+        assertTrue(filter.accept(QR, "a", 250));
+    }
+
+    @Test
+    public void keysOnFormatAndContents() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        assertTrue(filter.accept(QR, "a", 0));
+        assertTrue(filter.accept(EAN, "a", 0));
+        assertTrue(filter.accept(null, "a", 0));
+        assertFalse(filter.accept(null, "a", 1));
+        assertTrue(filter.accept(QR, "b", 0));
+        assertEquals(4, filter.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlySeenCode() {
+        ResultFilter filter = new ResultFilter(2, 1000);
+        filter.accept(QR, "a", 0);
+        filter.accept(QR, "b", 1);
+        // Seeing "a" again makes "b" the least recently seen code
+        assertFalse(filter.accept(QR, "a", 2));
+        assertTrue(filter.accept(QR, "c", 3));
+        assertEquals(2, filter.size());
+        assertEquals(1, filter.getEvictionCount());
+        assertFalse(filter.accept(QR, "a", 4));
+        assertFalse(filter.accept(QR, "c", 5));
+        assertTrue(filter.accept(QR, "b", 6));
+    }
+
+    @Test
+    public void evictionOfExpiredCodeIsNotCounted() {
+        ResultFilter filter = new ResultFilter(1, 10);
+        filter.accept(QR, "a", 0);
+        filter.accept(QR, "b", 10);
+        assertEquals(0, filter.getEvictionCount());
+        filter.accept(QR, "c", 11);
+        assertEquals(1, filter.getEvictionCount());
+    }
+
+    @Test
+    public void isDuplicateDoesNotRecordNewCode() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        assertFalse(filter.isDuplicate(QR, "a", 0));
+        assertEquals(0, filter.size());
+        assertTrue(filter.accept(QR, "a", 10));
+    }
+
+    @Test
+    public void isDuplicateRestartsTtl() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        filter.accept(QR, "a", 0);
+        assertTrue(filter.isDuplicate(QR, "a", 80));
+        assertTrue(filter.isDuplicate(QR, "a", 150));
+        assertFalse(filter.isDuplicate(QR, "a", 250));
+        assertEquals(2, filter.getHitCount());
+    }
+
+    @Test
+    public void clearForgetsAllCodes() {
+        ResultFilter filter = new ResultFilter(4, 100);
+        filter.accept(QR, "a", 0);
+        filter.clear();
+        assertEquals(0, filter.size());
+        assertTrue(filter.accept(QR, "a", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new ResultFilter(0, 100);
+    }
+
+    @Test
+    public void matchesLinkedHashMapModel() {
+        Random random = new Random(42);
+        int[] capacities = {1, 2, 7, 64, 100};
+        for (int capacity : capacities) {
+            long ttl = 50;
+            ResultFilter filter = new ResultFilter(capacity, ttl);
+            Model model = new Model(capacity, ttl);
+            long now = 0;
+            for (int i = 0; i < 40000; i++) {
+                now += random.nextInt(4);
+                String contents = "code-" + random.nextInt(capacity * 3);
+                Object format = random.nextBoolean() ? QR : EAN;
+                assertEquals("capacity " + capacity + ", sighting " + i,
+                        model.accept(format + "/" + contents, now), filter.accept(format, contents, now));
+            }
+            assertEquals(model.mEvictionCount, filter.getEvictionCount());
+            assertEquals(model.mEntries.size(), filter.size());
+        }
+    }
+
+    /** Straightforward LRU with a time-to-live, built on an access-ordered LinkedHashMap. */
+    private static class Model {
+        private final int mCapacity;
+        private final long mTtl;
+        private final Map<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        private long mEvictionCount;
+
+        Model(int capacity, long ttl) {
+            mCapacity = capacity;
+            mTtl = ttl;
+        }
+
+        boolean accept(String key, long now) {
+            Long expiry = mEntries.get(key);
+            if (expiry != null) {
+                mEntries.put(key, now + mTtl);
+                return expiry <= now;
+            }
+            if (mEntries.size() == mCapacity) {
+                Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+                if (eldest.next().getValue() > now) {
+                    mEvictionCount++;
+                }
+                eldest.remove();
+            }
+            mEntries.put(key, now + mTtl);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class RotationUtilsTest {
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+    // Odd and even sizes, so off-by-one errors in either dimension show up
+    private static final int[][] SIZES = {{1, 1}, {7, 3}, {31, 33}, {32, 64}, {65, 47}, {101, 57}, {640, 480}};
+
+    private final Random mRandom = new Random(3);
+
+    @Test
+    public void rotateMatchesNaiveRotation() {
+        for (int[] size : SIZES) {
+            byte[] frame = randomPlane(size[0], size[1]);
+            for (int degrees : ROTATIONS) {
+                byte[] expected = naiveRotateCrop(frame, size[0], 0, 0, size[0], size[1], degrees);
+                byte[] actual = RotationUtils.rotate(frame, size[0], size[1], degrees, null);
+                assertArrayEquals(describe(size, degrees), expected,
+                        Arrays.copyOf(actual, size[0] * size[1]));
+            }
+        }
+    }
+
+    @Test
+    public void rotateCropMatchesNaiveRotation() {
+        for (int[] size : SIZES) {
+            byte[] frame = randomPlane(size[0], size[1]);
+            for (int degrees : ROTATIONS) {
+                for (int i = 0; i < 10; i++) {
+                    int width = 1 + mRandom.nextInt(size[0]);
+                    int height = 1 + mRandom.nextInt(size[1]);
+                    int left = mRandom.nextInt(size[0] - width + 1);
+                    int top = mRandom.nextInt(size[1] - height + 1);
+                    byte[] expected = naiveRotateCrop(frame, size[0], left, top, width, height, degrees);
+                    byte[] actual = RotationUtils.rotateCrop(frame, size[0], left, top, width, height,
+                            degrees, null);
+                    assertArrayEquals(describe(size, degrees) + ", crop " + width + "x" + height
+                            + " at " + left + "," + top, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reusesLargeEnoughBuffer() {
+        byte[] frame = randomPlane(65, 47);
+        byte[] dst = new byte[65 * 47 + 1];
+        assertSame(dst, RotationUtils.rotate(frame, 65, 47, 90, dst));
+        assertSame(frame, RotationUtils.rotate(frame, 65, 47, 0, dst));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedRotation() {
+        RotationUtils.rotate(new byte[4], 2, 2, 45, null);
+    }
+
+    /**
+     * The back camera preview is the frame rotated clockwise by the display orientation, and the
+     * frame must be turned the same way.
+     */
+    @Test
+    public void backCameraFrameRotationMatchesPreview() {
+        int width = 7;
+        int height = 3;
+        for (int cameraOrientation : ROTATIONS) {
+            for (int displayRotation : ROTATIONS) {
+                byte[] frame = randomPlane(width, height);
+                int displayOrientation = RotationUtils.getDisplayOrientation(
+                        Camera.CameraInfo.CAMERA_FACING_BACK, cameraOrientation, displayRotation);
+                byte[] preview = naiveRotateCrop(frame, width, 0, 0, width, height, displayOrientation);
+                int frameRotation = RotationUtils.getFrameRotation(
+                        Camera.CameraInfo.CAMERA_FACING_BACK, cameraOrientation, displayRotation);
+                assertArrayEquals(describeCamera(cameraOrientation, displayRotation), preview,
+                        naiveRotateCrop(frame, width, 0, 0, width, height, frameRotation));
+            }
+        }
+    }
+
+    /**
+     * The front camera preview is the frame mirrored first and then rotated clockwise by the
+     * display orientation. The decoded frame must match that preview mirrored back.
+     */
+    @Test
+    public void frontCameraFrameRotationMatchesUnmirroredPreview() {
+        int width = 7;
+        int height = 3;
+        for (int cameraOrientation : ROTATIONS) {
+            for (int displayRotation : ROTATIONS) {
+                byte[] frame = randomPlane(width, height);
+                int displayOrientation = RotationUtils.getDisplayOrientation(
+                        Camera.CameraInfo.CAMERA_FACING_FRONT, cameraOrientation, displayRotation);
+                byte[] preview = naiveRotateCrop(mirror(frame, width, height), width, 0, 0, width, height,
+                        displayOrientation);
+                int previewWidth = RotationUtils.getRotatedWidth(width, height, displayOrientation);
+                int previewHeight = RotationUtils.getRotatedHeight(width, height, displayOrientation);
+                int frameRotation = RotationUtils.getFrameRotation(
+                        Camera.CameraInfo.CAMERA_FACING_FRONT, cameraOrientation, displayRotation);
+                assertArrayEquals(describeCamera(cameraOrientation, displayRotation),
+                        mirror(preview, previewWidth, previewHeight),
+                        naiveRotateCrop(frame, width, 0, 0, width, height, frameRotation));
+            }
+        }
+    }
+
+    /** Flips a plane horizontally, as a front camera preview is. */
+    private static byte[] mirror(byte[] plane, int width, int height) {
+        byte[] mirrored = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                mirrored[y * width + width - 1 - x] = plane[y * width + x];
+            }
+        }
+        return mirrored;
+    }
+
+    /** One pixel at a time, straight from the definition of a clockwise rotation. */
+    static byte[] naiveRotateCrop(byte[] src, int dataWidth, int left, int top, int width, int height,
+                                  int degrees) {
+        byte[] dst = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                byte value = src[(top + y) * dataWidth + left + x];
+                switch (degrees) {
+                    case 0:
+                        dst[y * width + x] = value;
+                        break;
+                    case 90:
+                        dst[x * height + height - 1 - y] = value;
+                        break;
+                    case 180:
+                        dst[(height - 1 - y) * width + width - 1 - x] = value;
+                        break;
+                    default:
+                        dst[(width - 1 - x) * height + y] = value;
+                        break;
+                }
+            }
+        }
+        return dst;
+    }
+
+    private byte[] randomPlane(int width, int height) {
+        byte[] plane = new byte[width * height];
+        mRandom.nextBytes(plane);
+        return plane;
+    }
+
+    private static String describe(int[] size, int degrees) {
+        return size[0] + "x" + size[1] + " rotated by " + degrees;
+    }
+
+    private static String describeCamera(int cameraOrientation, int displayRotation) {
+        return "camera at " + cameraOrientation + ", display at " + displayRotation;
+    }
+}
@@ -0,0 +1,150 @@
+package me.dm7.barcodescanner.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays a synthetic preview sequence through the sharpness gate and reports how much decode
+ * time it saves and how many decodable frames it throws away. The sequence imitates a hand that
+ * holds still, moves, refocuses and moves again: motion blur of a varying length along the rows
+ * on top of a slightly soft lens and sensor noise, at 30 frames per second. Skipped unless run
+ * with {@code -Dbenchmark=true}.
+ */
+public class SharpnessFilterBenchmark {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 240;
+    private static final int ROUNDS = 3;
+    private static final long FRAME_MILLIS = 33;
+
+    @Test
+    public void replay() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        MultiFormatWriter writer = new MultiFormatWriter();
+        replay("QR_CODE", writer.encode("https://example.com/item/0123456789", BarcodeFormat.QR_CODE, 260, 260));
+        replay("CODE_128", writer.encode("ABC-1234567", BarcodeFormat.CODE_128, 360, 140));
+    }
+
+    private static void replay(String name, BitMatrix code) {
+        Random random = new Random(3);
+        byte[][] frames = new byte[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            int phase = i % 40;
+            int blur;
+            if (phase < 15) {
+                blur = 0;
+            } else if (phase < 25) {
+                blur = 2 + random.nextInt(12);
+            } else if (phase < 30) {
+                blur = 1;
+            } else {
+                blur = 4 + random.nextInt(10);
+            }
+            frames[i] = frame(code, blur, random);
+        }
+        int left = WIDTH / 8;
+        int top = HEIGHT / 8;
+        int right = WIDTH * 7 / 8;
+        int bottom = HEIGHT * 7 / 8;
+        MultiFormatReader reader = new MultiFormatReader();
+        for (int round = 0; round < ROUNDS; round++) {
+            SharpnessFilter filter = new SharpnessFilter();
+            long allNanos = 0;
+            long acceptedNanos = 0;
+            long estimateNanos = 0;
+            int decodable = 0;
+            int lost = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                byte[] frame = frames[i];
+                long start = System.nanoTime();
+                boolean accepted = filter.accept(
+                        SharpnessFilter.estimateSharpness(frame, WIDTH, left, top, right, bottom),
+                        i * FRAME_MILLIS);
+                estimateNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                boolean decoded;
+                try {
+                    reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(new PlanarYUVLuminanceSource(
+                            frame, WIDTH, HEIGHT, left, top, right - left, bottom - top, false))));
+                    decoded = true;
+                } catch (ReaderException e) {
+                    decoded = false;
+                } finally {
+                    reader.reset();
+                }
+                long nanos = System.nanoTime() - start;
+                allNanos += nanos;
+                if (accepted) {
+                    acceptedNanos += nanos;
+                }
+                if (decoded) {
+                    decodable++;
+                    if (!accepted) {
+                        lost++;
+                    }
+                }
+            }
+            System.out.println(String.format("%s round %d: decode %.1f ms ungated, %.1f ms gated, estimator "
+                            + "%.2f ms; %d of %d frames skipped, %d of %d decodable frames lost",
+                    name, round, allNanos / 1e6, acceptedNanos / 1e6, estimateNanos / 1e6,
+                    filter.getSkippedFrameCount(), FRAMES, lost, decodable));
+        }
+    }
+
+    /** Renders {@code code} into a noisy frame, softened like a lens and blurred along the rows. */
+    private static byte[] frame(BitMatrix code, int blur, Random random) {
+        int[] luminance = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < luminance.length; i++) {
+            luminance[i] = 150 + random.nextInt(20);
+        }
+        int codeLeft = (WIDTH - code.getWidth()) / 2;
+        int codeTop = (HEIGHT - code.getHeight()) / 2;
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                luminance[(codeTop + y) * WIDTH + codeLeft + x] = code.get(x, y) ? 30 : 220;
+            }
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            int[] soft = new int[WIDTH * HEIGHT];
+            for (int y = 1; y < HEIGHT - 1; y++) {
+                for (int x = 1; x < WIDTH - 1; x++) {
+                    int sum = 0;
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            sum += luminance[(y + dy) * WIDTH + x + dx];
+                        }
+                    }
+                    soft[y * WIDTH + x] = sum / 9;
+                }
+            }
+            luminance = soft;
+        }
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int dx = Math.max(-blur, -x); dx <= blur && x + dx < WIDTH; dx++) {
+                    sum += luminance[y * WIDTH + x + dx];
+                    count++;
+                }
+                int value = sum / count + random.nextInt(7) - 3;
+                frame[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,52 @@
+package me.dm7.barcodescanner.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharpnessFilterTest {
+    private static final long HALF_LIFE = 400;
+
+    @Test
+    public void baselineDecaysWithTimeNotFrameCount() {
+        SharpnessFilter filter = new SharpnessFilter(0.5f, HALF_LIFE);
+        assertTrue(filter.accept(100, 1000));
+        // However many frames arrive within the same instant, the baseline does not move
+        for (int i = 0; i < 50; i++) {
+            assertFalse(filter.accept(40, 1000));
+        }
+        // One half-life later the threshold is 0.5 * 50
+        assertFalse(filter.accept(24, 1000 + HALF_LIFE));
+        assertTrue(filter.accept(26, 1000 + HALF_LIFE));
+        assertEquals(2, filter.getAcceptedFrameCount());
+        assertEquals(51, filter.getSkippedFrameCount());
+    }
+
+    @Test
+    public void sharperFrameRaisesBaseline() {
+        SharpnessFilter filter = new SharpnessFilter(0.5f, HALF_LIFE);
+        assertTrue(filter.accept(100, 0));
+        assertTrue(filter.accept(300, 10));
+        assertFalse(filter.accept(100, 20));
+    }
+
+    @Test
+    public void resetStartsNewBaseline() {
+        SharpnessFilter filter = new SharpnessFilter(0.5f, HALF_LIFE);
+        assertTrue(filter.accept(1000, 0));
+        assertFalse(filter.accept(10, 1));
+        filter.reset();
+        assertTrue(filter.accept(10, 2));
+    }
+
+    @Test
+    public void survivesClockWrap() {
+        SharpnessFilter filter = new SharpnessFilter(0.5f, HALF_LIFE);
+        long beforeWrap = 0xFFFFFFFFL - 100;
+        assertTrue(filter.accept(100, beforeWrap));
+        assertFalse(filter.accept(24, beforeWrap + HALF_LIFE));
+        assertTrue(filter.accept(26, beforeWrap + HALF_LIFE));
+    }
+}
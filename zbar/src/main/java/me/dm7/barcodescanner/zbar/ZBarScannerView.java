@@ -1,10 +1,7 @@
 package me.dm7.barcodescanner.zbar;
 
 import android.content.Context;
-import android.content.res.Configuration;
-import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Looper;
+import android.graphics.Rect;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -15,11 +12,17 @@ import net.sourceforge.zbar.ImageScanner;
 import net.sourceforge.zbar.Symbol;
 import net.sourceforge.zbar.SymbolSet;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import me.dm7.barcodescanner.core.BarcodeScannerView;
-import me.dm7.barcodescanner.core.DisplayUtils;
+import me.dm7.barcodescanner.core.CameraGeometry;
+import me.dm7.barcodescanner.core.FrameDecoder;
+import me.dm7.barcodescanner.core.PreviewFrame;
+import me.dm7.barcodescanner.core.RegionOfInterestTracker;
+import me.dm7.barcodescanner.core.ResultDispatcher;
+import me.dm7.barcodescanner.core.RotationUtils;
 
 public class ZBarScannerView extends BarcodeScannerView {
     private static final String TAG = "ZBarScannerView";
@@ -28,13 +31,26 @@ public class ZBarScannerView extends BarcodeScannerView {
         public void handleResult(Result rawResult);
     }
 
+    public interface MultipleResultHandler {
+        public void handleResults(List<Result> rawResults);
+    }
+
     static {
         System.loadLibrary("iconv");
     }
 
-    private ImageScanner mScanner;
+    private volatile Collection<BarcodeFormat> mScannerFormats;
     private List<BarcodeFormat> mFormats;
-    private ResultHandler mResultHandler;
+    private volatile ResultHandler mResultHandler;
+    private volatile MultipleResultHandler mMultipleResultHandler;
+    private static final int DISPATCH_CONTINUOUS = 1;
+    private final ResultDispatcher mResultDispatcher = new ResultDispatcher(new ResultDispatcher.Receiver() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onResult(Object result, int flags) {
+            onResultDispatched((List<Result>) result, flags);
+        }
+    });
 
     public ZBarScannerView(Context context) {
         super(context);
@@ -55,6 +71,14 @@ public class ZBarScannerView extends BarcodeScannerView {
         mResultHandler = resultHandler;
     }
 
+    /**
+     * Delivers all barcodes found in a frame instead of only the first one. Takes precedence
+     * over the {@link ResultHandler}.
+     */
+    public void setMultipleResultHandler(MultipleResultHandler multipleResultHandler) {
+        mMultipleResultHandler = multipleResultHandler;
+    }
+
     public Collection<BarcodeFormat> getFormats() {
         if(mFormats == null) {
             return BarcodeFormat.ALL_FORMATS;
@@ -62,80 +86,209 @@ public class ZBarScannerView extends BarcodeScannerView {
         return mFormats;
     }
 
+    /**
+     * @return number of continuous-scanning results dropped because the main thread fell behind
+     */
+    public long getDroppedResultCount() {
+        return mResultDispatcher.getDropCount();
+    }
+
     public void setupScanner() {
-        mScanner = new ImageScanner();
-        mScanner.setConfig(0, Config.X_DENSITY, 3);
-        mScanner.setConfig(0, Config.Y_DENSITY, 3);
+        // Formats are copied so that every decode thread notices the change and rebuilds its scanner.
+        mScannerFormats = new ArrayList<BarcodeFormat>(getFormats());
+    }
+
+    private static ImageScanner createImageScanner(Collection<BarcodeFormat> formats) {
+        ImageScanner scanner = new ImageScanner();
+        scanner.setConfig(0, Config.X_DENSITY, 3);
+        scanner.setConfig(0, Config.Y_DENSITY, 3);
 
-        mScanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
-        for(BarcodeFormat format : getFormats()) {
-            mScanner.setConfig(format.getId(), Config.ENABLE, 1);
+        scanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
+        for(BarcodeFormat format : formats) {
+            scanner.setConfig(format.getId(), Config.ENABLE, 1);
         }
+        return scanner;
     }
 
     @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
-        if(mResultHandler == null) {
-            return;
+    protected FrameDecoder createFrameDecoder() {
+        return new ZBarFrameDecoder();
+    }
+
+    /**
+     * Decodes frames for a single decode thread. {@link ImageScanner} is not thread-safe, so
+     * every decoder keeps its own scanner and rebuilds it when the formats change.
+     */
+    private class ZBarFrameDecoder implements FrameDecoder {
+        private Collection<BarcodeFormat> mDecoderFormats;
+        private ImageScanner mScanner;
+        private byte[] mRotatedData;
+        private final Rect mScanArea = new Rect();
+        private final Rect mWindow = new Rect();
+        private final Rect mBounds = new Rect();
+
+        @Override
+        public boolean decode(PreviewFrame frame) {
+            if(mResultHandler == null && mMultipleResultHandler == null) {
+                return false;
+            }
+            if (mDecoderFormats != mScannerFormats) {
+                mDecoderFormats = mScannerFormats;
+                mScanner = createImageScanner(mDecoderFormats);
+            }
+            return decodeFrame(frame, this);
         }
+    }
+
+    /**
+     * @return true if a code was found
+     */
+    private boolean decodeFrame(PreviewFrame frame, ZBarFrameDecoder decoder) {
+        byte[] data = frame.getData();
+        CameraGeometry geometry = frame.getGeometry();
 
         try {
-            Camera.Parameters parameters = camera.getParameters();
-            Camera.Size size = parameters.getPreviewSize();
-            int width = size.width;
-            int height = size.height;
-
-            if(DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
-                byte[] rotatedData = new byte[data.length];
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++)
-                        rotatedData[x * height + height - y - 1] = data[x + y * width];
-                }
-                int tmp = width;
-                width = height;
-                height = tmp;
-                data = rotatedData;
+            int width = geometry.getPreviewWidth();
+            int height = geometry.getPreviewHeight();
+            int rotation = geometry.getFrameRotation();
+
+            if (rotation != 0) {
+                decoder.mRotatedData = RotationUtils.rotate(data, width, height, rotation, decoder.mRotatedData);
+                width = geometry.getRotatedWidth();
+                height = geometry.getRotatedHeight();
+                data = decoder.mRotatedData;
             }
 
             Image barcode = new Image(width, height, "Y800");
             barcode.setData(data);
 
-            int result = mScanner.scanImage(barcode);
+            long start = System.nanoTime();
+            RegionOfInterestTracker tracker = getRegionOfInterestTracker();
+            decoder.mScanArea.set(0, 0, width, height);
+            boolean windowed = tracker != null && tracker.getWindow(decoder.mScanArea, decoder.mWindow);
+            if (windowed) {
+                Rect window = decoder.mWindow;
+                barcode.setCrop(window.left, window.top, window.width(), window.height());
+            }
 
-            if (result != 0) {
-                SymbolSet syms = mScanner.getResults();
-                final Result rawResult = new Result();
+            int result = decoder.mScanner.scanImage(barcode);
+            if (tracker != null) {
+                Rect bounds = result != 0 ? getBounds(decoder.mScanner.getResults(), decoder.mBounds) : null;
+                tracker.onFrameDecoded(windowed, result != 0, bounds, System.nanoTime() - start);
+            }
+
+            boolean continuous = isContinuousScanning();
+            if (result != 0 && isFrameCurrent(frame)) {
+                SymbolSet syms = decoder.mScanner.getResults();
+                boolean multiple = mMultipleResultHandler != null;
+                List<Result> rawResults = new ArrayList<Result>();
+                boolean found = false;
                 for (Symbol sym : syms) {
                     String symData = sym.getData();
                     if (!TextUtils.isEmpty(symData)) {
+                        found = true;
+                        BarcodeFormat format = BarcodeFormat.getFormatById(sym.getType());
+                        if (isDuplicateResult(format, symData)) {
+                            continue;
+                        }
+                        Result rawResult = new Result();
                         rawResult.setContents(symData);
-                        rawResult.setBarcodeFormat(BarcodeFormat.getFormatById(sym.getType()));
-                        break;
+                        rawResult.setBarcodeFormat(format);
+                        rawResults.add(rawResult);
+                        if (!multiple) {
+                            break;
+                        }
                     }
                 }
+                if (found && rawResults.isEmpty()) {
+                    // Only codes that were seen recently
+                    return true;
+                }
+                if (rawResults.isEmpty() && (continuous || multiple)) {
+                    return true;
+                }
+                if (!claimResult(frame)) {
+                    return true;
+                }
+                for (Result rawResult : rawResults) {
+                    recordResult(rawResult.getBarcodeFormat(), rawResult.getContents());
+                }
+                if (rawResults.isEmpty()) {
+                    // Keep delivering an empty result, as before
+                    rawResults.add(new Result());
+                }
 
-                Handler handler = new Handler(Looper.getMainLooper());
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Stopping the preview can take a little long.
-                        // So we want to set result handler to null to discard subsequent calls to
-                        // onPreviewFrame.
-                        ResultHandler tmpResultHandler = mResultHandler;
-                        mResultHandler = null;
-                        
-                        stopCameraPreview();
-                        if (tmpResultHandler != null) {
-                            tmpResultHandler.handleResult(rawResult);
-                        }
-                    }
-                });
-            } else {
-                camera.setOneShotPreviewCallback(this);
+                mResultDispatcher.dispatch(rawResults, continuous ? DISPATCH_CONTINUOUS : 0);
             }
+            return result != 0;
         } catch(RuntimeException e) {
             // TODO: Terrible hack. It is possible that this method is invoked after camera is released.
             Log.e(TAG, e.toString(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return {@code bounds} set to the bounds of all symbols, or null if their location is unknown
+     */
+    private static Rect getBounds(SymbolSet syms, Rect bounds) {
+        boolean found = false;
+        for (Symbol sym : syms) {
+            int[] symBounds = sym.getBounds();
+            if (symBounds == null || symBounds.length < 4) {
+                continue;
+            }
+            int left = symBounds[0];
+            int top = symBounds[1];
+            int right = left + symBounds[2];
+            int bottom = top + symBounds[3];
+            if (!found) {
+                bounds.set(left, top, right, bottom);
+                found = true;
+            } else {
+                // Rect.union() skips empty rects, but a 1D symbol can be a single line
+                bounds.set(Math.min(bounds.left, left), Math.min(bounds.top, top),
+                        Math.max(bounds.right, right), Math.max(bounds.bottom, bottom));
+            }
+        }
+        return found ? bounds : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onResultDispatched(List<Result> rawResults, int flags) {
+        if ((flags & DISPATCH_CONTINUOUS) != 0) {
+            deliverResults(rawResults);
+            return;
+        }
+        // Stopping the preview can take a little long.
+        // So we want to set result handler to null to discard subsequent calls to
+        // onPreviewFrame.
+        ResultHandler tmpResultHandler = mResultHandler;
+        MultipleResultHandler tmpMultipleResultHandler = mMultipleResultHandler;
+        mResultHandler = null;
+        mMultipleResultHandler = null;
+
+        stopCameraPreview();
+        if (tmpMultipleResultHandler != null) {
+            tmpMultipleResultHandler.handleResults(rawResults);
+        } else if (tmpResultHandler != null) {
+            tmpResultHandler.handleResult(rawResults.get(0));
+        }
+    }
+
+    /**
+     * Delivers results in continuous mode, where the handlers stay set and the preview keeps
+     * running.
+     */
+    private void deliverResults(List<Result> rawResults) {
+        MultipleResultHandler multipleResultHandler = mMultipleResultHandler;
+        ResultHandler resultHandler = mResultHandler;
+        if (multipleResultHandler != null) {
+            multipleResultHandler.handleResults(rawResults);
+        } else if (resultHandler != null) {
+            for (Result rawResult : rawResults) {
+                resultHandler.handleResult(rawResult);
+            }
         }
     }
 
@@ -143,4 +296,9 @@ public class ZBarScannerView extends BarcodeScannerView {
         mResultHandler = resultHandler;
         super.resumeCameraPreview();
     }
+
+    public void resumeCameraPreview(MultipleResultHandler multipleResultHandler) {
+        mMultipleResultHandler = multipleResultHandler;
+        super.resumeCameraPreview();
+    }
 }
@@ -0,0 +1,274 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.aztec.AztecReader;
+import com.google.zxing.datamatrix.DataMatrixReader;
+import com.google.zxing.maxicode.MaxiCodeReader;
+import com.google.zxing.oned.MultiFormatOneDReader;
+import com.google.zxing.pdf417.PDF417Reader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Drop-in replacement for {@link com.google.zxing.MultiFormatReader} that orders its readers
+ * by how often their formats were decoded, as recorded in a {@link FormatHitStats}.</p>
+ *
+ * <p>Once enough results have been recorded, formats that make up less than
+ * {@link #MIN_HIT_SHARE} of the hits are skipped, which makes frames without a barcode much
+ * cheaper when only a few formats are scanned in practice. Every {@code fullScanInterval}-th
+ * frame still runs all readers, so that formats that are rarely scanned are not starved.</p>
+ *
+ * <p>A camera frame may be decoded several times, e.g. once per binarizer or to find several
+ * codes, so the owner calls {@link #startFrame()} once per camera frame and records the formats
+ * found in the stats itself.</p>
+ *
+ * <p>Like {@code MultiFormatReader}, an instance must only be used by one thread at a time.</p>
+ */
+public final class AdaptiveMultiFormatReader implements Reader {
+    public static final int DEFAULT_FULL_SCAN_INTERVAL = 10;
+    public static final int MIN_HITS = 20;
+    public static final float MIN_HIT_SHARE = 0.02f;
+
+    private static final int GROUP_ONE_D = 0;
+    private static final int GROUP_QR_CODE = 1;
+    private static final int GROUP_DATA_MATRIX = 2;
+    private static final int GROUP_AZTEC = 3;
+    private static final int GROUP_PDF_417 = 4;
+    private static final int GROUP_MAXICODE = 5;
+    private static final int GROUP_COUNT = 6;
+
+    private final Map<DecodeHintType,Object> mHints;
+    private final List<BarcodeFormat> mFormats;
+    private final FormatHitStats mStats;
+    private final int mFullScanInterval;
+
+    private long mFrameCount;
+    private List<Reader> mFrameReaders;
+    private Map<DecodeHintType,?> mCallerHints;
+    private Map<DecodeHintType,Object> mMergedHints;
+    private long mStatsVersion = -1;
+    private List<Reader> mAllReaders;
+    private List<Reader> mFocusedReaders;
+    private List<BarcodeFormat> mAllOrder;
+    private List<BarcodeFormat> mFocusedOrder;
+
+    public AdaptiveMultiFormatReader(Map<DecodeHintType,?> hints, FormatHitStats stats) {
+        this(hints, stats, DEFAULT_FULL_SCAN_INTERVAL);
+    }
+
+    /**
+     * @param hints decode hints; {@link DecodeHintType#POSSIBLE_FORMATS} selects the formats
+     * @param stats hit counts to order the readers by
+     * @param fullScanInterval run all readers on every n-th frame
+     */
+    @SuppressWarnings("unchecked")
+    public AdaptiveMultiFormatReader(Map<DecodeHintType,?> hints, FormatHitStats stats, int fullScanInterval) {
+        if (fullScanInterval < 1) {
+            throw new IllegalArgumentException("fullScanInterval must be at least 1");
+        }
+        mHints = new EnumMap<DecodeHintType,Object>(DecodeHintType.class);
+        if (hints != null) {
+            mHints.putAll(hints);
+        }
+        Collection<BarcodeFormat> formats = (Collection<BarcodeFormat>) mHints.get(DecodeHintType.POSSIBLE_FORMATS);
+        mFormats = new ArrayList<BarcodeFormat>(formats != null ? formats : ZXingScannerView.ALL_FORMATS);
+        mStats = stats;
+        mFullScanInterval = fullScanInterval;
+    }
+
+    /**
+     * Picks the readers for the next camera frame: all of them on every
+     * {@code fullScanInterval}-th frame, otherwise only the ones for frequently hit formats.
+     */
+    public void startFrame() {
+        updateReaders();
+        mFrameReaders = mFrameCount++ % mFullScanInterval == 0 ? mAllReaders : mFocusedReaders;
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image) throws NotFoundException {
+        return decode(image, mHints);
+    }
+
+    /**
+     * Decodes with the readers picked by the last {@link #startFrame()}. The given hints are
+     * merged over the ones given to the constructor, except that the formats stay those of the
+     * constructor.
+     */
+    @Override
+    public Result decode(BinaryBitmap image, Map<DecodeHintType,?> hints) throws NotFoundException {
+        if (mFrameReaders == null) {
+            startFrame();
+        }
+        Map<DecodeHintType,?> decodeHints = mergeHints(hints);
+        List<Reader> readers = mFrameReaders;
+        for (int i = 0; i < readers.size(); i++) {
+            try {
+                return readers.get(i).decode(image, decodeHints);
+            } catch (ReaderException re) {
+                // continue
+            }
+        }
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    private Map<DecodeHintType,?> mergeHints(Map<DecodeHintType,?> hints) {
+        if (hints == null || hints == mHints || hints.isEmpty()) {
+            return mHints;
+        }
+        // Callers such as GenericMultipleBarcodeReader pass the same map for every sub-image
+        if (hints != mCallerHints) {
+            Map<DecodeHintType,Object> merged = new EnumMap<DecodeHintType,Object>(mHints);
+            merged.putAll(hints);
+            if (mHints.containsKey(DecodeHintType.POSSIBLE_FORMATS)) {
+                merged.put(DecodeHintType.POSSIBLE_FORMATS, mHints.get(DecodeHintType.POSSIBLE_FORMATS));
+            } else {
+                merged.remove(DecodeHintType.POSSIBLE_FORMATS);
+            }
+            mCallerHints = hints;
+            mMergedHints = merged;
+        }
+        return mMergedHints;
+    }
+
+    @Override
+    public void reset() {
+        reset(mAllReaders);
+        if (mFocusedReaders != mAllReaders) {
+            reset(mFocusedReaders);
+        }
+    }
+
+    private static void reset(List<Reader> readers) {
+        if (readers != null) {
+            for (Reader reader : readers) {
+                reader.reset();
+            }
+        }
+    }
+
+    private void updateReaders() {
+        long version = mStats.getVersion();
+        if (version == mStatsVersion) {
+            return;
+        }
+        mStatsVersion = version;
+
+        List<BarcodeFormat> allOrder = sortByHits(mFormats);
+        List<BarcodeFormat> focusedOrder = allOrder;
+        // Only count hits of the formats this reader looks for
+        long totalHits = 0;
+        for (BarcodeFormat format : mFormats) {
+            totalHits += mStats.getHitCount(format);
+        }
+        if (totalHits >= MIN_HITS) {
+            focusedOrder = new ArrayList<BarcodeFormat>();
+            for (BarcodeFormat format : allOrder) {
+                if (mStats.getHitCount(format) >= totalHits * MIN_HIT_SHARE) {
+                    focusedOrder.add(format);
+                }
+            }
+        }
+        if (!allOrder.equals(mAllOrder)) {
+            mAllOrder = allOrder;
+            mAllReaders = createReaders(allOrder);
+        }
+        if (focusedOrder.equals(allOrder)) {
+            mFocusedOrder = focusedOrder;
+            mFocusedReaders = mAllReaders;
+        } else if (!focusedOrder.equals(mFocusedOrder)) {
+            mFocusedOrder = focusedOrder;
+            mFocusedReaders = createReaders(focusedOrder);
+        }
+    }
+
+    private List<BarcodeFormat> sortByHits(List<BarcodeFormat> formats) {
+        // Insertion sort keeps the configured order for formats with equal counts
+        List<BarcodeFormat> sorted = new ArrayList<BarcodeFormat>(formats.size());
+        for (BarcodeFormat format : formats) {
+            long hits = mStats.getHitCount(format);
+            int i = sorted.size();
+            while (i > 0 && mStats.getHitCount(sorted.get(i - 1)) < hits) {
+                i--;
+            }
+            sorted.add(i, format);
+        }
+        return sorted;
+    }
+
+    /**
+     * Creates one reader per group of formats, in the order the first format of each group
+     * appears in {@code formats}. All 1D formats share a single reader that only looks for the
+     * given 1D formats.
+     */
+    private List<Reader> createReaders(List<BarcodeFormat> formats) {
+        List<BarcodeFormat> oneDFormats = new ArrayList<BarcodeFormat>();
+        boolean[] added = new boolean[GROUP_COUNT];
+        List<Integer> groups = new ArrayList<Integer>();
+        for (BarcodeFormat format : formats) {
+            int group = getGroup(format);
+            if (group == GROUP_ONE_D) {
+                oneDFormats.add(format);
+            }
+            if (!added[group]) {
+                added[group] = true;
+                groups.add(group);
+            }
+        }
+
+        List<Reader> readers = new ArrayList<Reader>(groups.size());
+        for (int group : groups) {
+            switch (group) {
+                case GROUP_ONE_D:
+                    Map<DecodeHintType,Object> oneDHints = new EnumMap<DecodeHintType,Object>(mHints);
+                    oneDHints.put(DecodeHintType.POSSIBLE_FORMATS, oneDFormats);
+                    readers.add(new MultiFormatOneDReader(oneDHints));
+                    break;
+                case GROUP_QR_CODE:
+                    readers.add(new QRCodeReader());
+                    break;
+                case GROUP_DATA_MATRIX:
+                    readers.add(new DataMatrixReader());
+                    break;
+                case GROUP_AZTEC:
+                    readers.add(new AztecReader());
+                    break;
+                case GROUP_PDF_417:
+                    readers.add(new PDF417Reader());
+                    break;
+                case GROUP_MAXICODE:
+                    readers.add(new MaxiCodeReader());
+                    break;
+            }
+        }
+        return readers;
+    }
+
+    private static int getGroup(BarcodeFormat format) {
+        switch (format) {
+            case QR_CODE:
+                return GROUP_QR_CODE;
+            case DATA_MATRIX:
+                return GROUP_DATA_MATRIX;
+            case AZTEC:
+                return GROUP_AZTEC;
+            case PDF_417:
+                return GROUP_PDF_417;
+            case MAXICODE:
+                return GROUP_MAXICODE;
+            default:
+                return GROUP_ONE_D;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package me.dm7.barcodescanner.zxing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often each binarizer ran and how often it produced the result, to tune the binarizer
+ * strategy of {@link ZXingScannerView}. Shared between decode threads.
+ */
+public class BinarizerStats {
+    private final AtomicLong mGlobalHistogramFrameCount = new AtomicLong();
+    private final AtomicLong mGlobalHistogramHitCount = new AtomicLong();
+    private final AtomicLong mUnevenFrameCount = new AtomicLong();
+    private final AtomicLong mHybridFrameCount = new AtomicLong();
+    private final AtomicLong mHybridHitCount = new AtomicLong();
+
+    void onGlobalHistogramFrame(boolean hit) {
+        mGlobalHistogramFrameCount.incrementAndGet();
+        if (hit) {
+            mGlobalHistogramHitCount.incrementAndGet();
+        }
+    }
+
+    void onUnevenFrame() {
+        mUnevenFrameCount.incrementAndGet();
+    }
+
+    void onHybridFrame(boolean hit) {
+        mHybridFrameCount.incrementAndGet();
+        if (hit) {
+            mHybridHitCount.incrementAndGet();
+        }
+    }
+
+    /** Number of frames binarized with a global threshold. */
+    public long getGlobalHistogramFrameCount() {
+        return mGlobalHistogramFrameCount.get();
+    }
+
+    /** Number of results found in a frame binarized with a global threshold. */
+    public long getGlobalHistogramHitCount() {
+        return mGlobalHistogramHitCount.get();
+    }
+
+    /** Number of frames that skipped the global threshold because of uneven lighting. */
+    public long getUnevenFrameCount() {
+        return mUnevenFrameCount.get();
+    }
+
+    /** Number of frames binarized with local thresholds. */
+    public long getHybridFrameCount() {
+        return mHybridFrameCount.get();
+    }
+
+    /** Number of results found in a frame binarized with local thresholds. */
+    public long getHybridHitCount() {
+        return mHybridHitCount.get();
+    }
+}
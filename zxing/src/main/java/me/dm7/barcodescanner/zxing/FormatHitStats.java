@@ -0,0 +1,93 @@
+package me.dm7.barcodescanner.zxing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.zxing.BarcodeFormat;
+
+/**
+ * <p>Counts how often each barcode format was decoded, so that {@link AdaptiveMultiFormatReader}
+ * can try the formats that are actually scanned first. Shared between decode threads.</p>
+ *
+ * <p>The counts can be stored in {@link SharedPreferences} to carry them across sessions. Once
+ * the total grows past {@link #MAX_TOTAL_HITS} all counts are halved, so that old sessions do not
+ * keep the ordering from following a change in what is being scanned.</p>
+ */
+public class FormatHitStats {
+    public static final int MAX_TOTAL_HITS = 10000;
+    private static final String PREFERENCES_NAME = "me.dm7.barcodescanner.zxing.FormatHitStats";
+    private static final String KEY_PREFIX = "hits_";
+
+    private final long[] mHitCounts = new long[BarcodeFormat.values().length];
+    private long mTotalHits;
+    private long mVersion;
+
+    public synchronized void recordHit(BarcodeFormat format) {
+        mHitCounts[format.ordinal()]++;
+        mTotalHits++;
+        if (mTotalHits > MAX_TOTAL_HITS) {
+            mTotalHits = 0;
+            for (int i = 0; i < mHitCounts.length; i++) {
+                mHitCounts[i] /= 2;
+                mTotalHits += mHitCounts[i];
+            }
+        }
+        mVersion++;
+    }
+
+    public synchronized long getHitCount(BarcodeFormat format) {
+        return mHitCounts[format.ordinal()];
+    }
+
+    public synchronized long getTotalHits() {
+        return mTotalHits;
+    }
+
+    /**
+     * @return a number that changes whenever the counts change
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mHitCounts.length; i++) {
+            mHitCounts[i] = 0;
+        }
+        mTotalHits = 0;
+        mVersion++;
+    }
+
+    /**
+     * Replaces the counts with the ones stored by {@link #save(SharedPreferences)}.
+     */
+    public synchronized void load(SharedPreferences preferences) {
+        mTotalHits = 0;
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            long hits = preferences.getLong(KEY_PREFIX + format.name(), 0);
+            mHitCounts[format.ordinal()] = hits;
+            mTotalHits += hits;
+        }
+        mVersion++;
+    }
+
+    public synchronized void save(SharedPreferences preferences) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            long hits = mHitCounts[format.ordinal()];
+            if (hits > 0) {
+                editor.putLong(KEY_PREFIX + format.name(), hits);
+            } else {
+                editor.remove(KEY_PREFIX + format.name());
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return the preferences the scanner view stores its stats in
+     */
+    public static SharedPreferences getDefaultPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
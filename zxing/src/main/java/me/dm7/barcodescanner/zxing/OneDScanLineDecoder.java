@@ -0,0 +1,240 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.oned.MultiFormatOneDReader;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * <p>Fast path for scanning 1D barcodes only. Instead of binarizing the whole framing rect, a
+ * few horizontal scan lines are read from the luminance source, thresholded on their own and
+ * handed straight to the 1D readers, first as read and then reversed for upside down codes.</p>
+ *
+ * <p>Scan lines miss codes that are damaged or cross the framing rect at an angle, so after
+ * {@code escalateAfter} frames in a row without a result {@link #isEscalating()} tells the caller
+ * to decode frames the regular way and to report back with {@link #onFullFrameDecoded}. The
+ * decoder stays escalated until a full decode finds a code or for {@code escalateFor} frames,
+ * whichever comes first, so a code the scan lines cannot read gets more than one full attempt.</p>
+ *
+ * <p>An instance must only be used by one thread at a time.</p>
+ */
+public final class OneDScanLineDecoder {
+    public static final int DEFAULT_SCAN_LINE_COUNT = 8;
+    public static final int DEFAULT_ESCALATE_AFTER = 4;
+    public static final int DEFAULT_ESCALATE_FOR = 8;
+    private static final int MIN_DYNAMIC_RANGE = 24;
+
+    private final MultiFormatOneDReader mReader;
+    private final Map<DecodeHintType,?> mHints;
+    private int mScanLineCount;
+    private final int mEscalateAfter;
+    private final int mEscalateFor;
+    private byte[] mLuminances;
+    private BitArray mRow;
+    private int mFailureStreak;
+    private int mEscalatedFrames;
+
+    private long mScanLineFrameCount;
+    private long mFullFrameCount;
+
+    public OneDScanLineDecoder(Map<DecodeHintType,?> hints, int scanLineCount, int escalateAfter) {
+        this(hints, scanLineCount, escalateAfter, DEFAULT_ESCALATE_FOR);
+    }
+
+    /**
+     * @param hints decode hints; {@link DecodeHintType#POSSIBLE_FORMATS} must only hold 1D formats
+     * @param scanLineCount number of rows to read per frame
+     * @param escalateAfter number of frames without a result before full frames are decoded
+     * @param escalateFor maximum number of full frames decoded in a row without a result
+     */
+    public OneDScanLineDecoder(Map<DecodeHintType,?> hints, int scanLineCount, int escalateAfter,
+                               int escalateFor) {
+        if (escalateFor < 1) {
+            throw new IllegalArgumentException("escalateFor must be at least 1");
+        }
+        mReader = new MultiFormatOneDReader(hints);
+        mHints = hints;
+        setScanLineCount(scanLineCount);
+        mEscalateAfter = escalateAfter;
+        mEscalateFor = escalateFor;
+    }
+
+    /**
+     * Changes the number of rows read per frame, keeping the readers and the escalation state.
+     */
+    public void setScanLineCount(int scanLineCount) {
+        if (scanLineCount < 1) {
+            throw new IllegalArgumentException("scanLineCount must be at least 1");
+        }
+        mScanLineCount = scanLineCount;
+    }
+
+    public int getScanLineCount() {
+        return mScanLineCount;
+    }
+
+    /**
+     * @return true if all formats are 1D formats that can be read from a single row
+     */
+    public static boolean isOneDOnly(Collection<BarcodeFormat> formats) {
+        if (formats == null || formats.isEmpty()) {
+            return false;
+        }
+        for (BarcodeFormat format : formats) {
+            switch (format) {
+                case UPC_A:
+                case UPC_E:
+                case EAN_13:
+                case EAN_8:
+                case RSS_14:
+                case RSS_EXPANDED:
+                case CODE_39:
+                case CODE_93:
+                case CODE_128:
+                case ITF:
+                case CODABAR:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the next frame should get a full 2D decode instead of the scan lines
+     */
+    public boolean isEscalating() {
+        return mEscalatedFrames > 0 || mFailureStreak >= mEscalateAfter;
+    }
+
+    /**
+     * Reports the outcome of a full 2D decode done while {@link #isEscalating()}.
+     *
+     * @param found true if the full decode found a code, which ends the escalation
+     */
+    public void onFullFrameDecoded(boolean found) {
+        mFullFrameCount++;
+        mFailureStreak = 0;
+        mEscalatedFrames++;
+        if (found || mEscalatedFrames >= mEscalateFor) {
+            mEscalatedFrames = 0;
+        }
+    }
+
+    /**
+     * @return the first code found on any of the scan lines, or null
+     */
+    public Result decode(LuminanceSource source) {
+        mScanLineFrameCount++;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (mRow == null || mRow.getSize() != width) {
+            mRow = new BitArray(width);
+        }
+        BitArray row = mRow;
+
+        int spacing = Math.max(1, height / (mScanLineCount + 1));
+        int middle = height / 2;
+        try {
+            // Start in the middle, where the code most likely is, and alternate above and below
+            for (int i = 0; i < mScanLineCount; i++) {
+                int steps = (i + 1) / 2;
+                int y = middle + ((i & 1) == 0 ? steps * spacing : -steps * spacing);
+                if (y < 0 || y >= height) {
+                    break;
+                }
+                mLuminances = source.getRow(y, mLuminances);
+                if (!binarizeRow(mLuminances, width, row)) {
+                    continue;
+                }
+                Result result = decodeRow(y, row, width);
+                if (result != null) {
+                    mFailureStreak = 0;
+                    return result;
+                }
+            }
+        } finally {
+            mReader.reset();
+        }
+        mFailureStreak++;
+        return null;
+    }
+
+    private Result decodeRow(int y, BitArray row, int width) {
+        try {
+            return mReader.decodeRow(y, row, mHints);
+        } catch (ReaderException re) {
+            // try upside down
+        }
+        row.reverse();
+        try {
+            Result result = mReader.decodeRow(y, row, mHints);
+            ResultPoint[] points = result.getResultPoints();
+            if (points != null) {
+                for (int i = 0; i < points.length; i++) {
+                    if (points[i] != null) {
+                        points[i] = new ResultPoint(width - points[i].getX() - 1, points[i].getY());
+                    }
+                }
+            }
+            return result;
+        } catch (ReaderException re) {
+            return null;
+        }
+    }
+
+    /**
+     * Thresholds a row at the middle of its (lightly smoothed) luminance range. Rows without
+     * enough contrast to hold a barcode are skipped.
+     *
+     * @return false if the row has too little contrast
+     */
+    static boolean binarizeRow(byte[] luminances, int width, BitArray row) {
+        int min = 0xFF;
+        int max = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = luminances[x] & 0xFF;
+            if (pixel < min) {
+                min = pixel;
+            }
+            if (pixel > max) {
+                max = pixel;
+            }
+        }
+        if (max - min <= MIN_DYNAMIC_RANGE) {
+            return false;
+        }
+        // Compare the 1-2-1 filtered value against 4x the threshold to stay in integers
+        int threshold = 2 * (min + max);
+        row.clear();
+        int left = luminances[0] & 0xFF;
+        int center = left;
+        for (int x = 0; x < width; x++) {
+            int right = x + 1 < width ? luminances[x + 1] & 0xFF : center;
+            if (left + 2 * center + right < threshold) {
+                row.set(x);
+            }
+            left = center;
+            center = right;
+        }
+        return true;
+    }
+
+    /** Number of frames decoded through the scan lines. */
+    public long getScanLineFrameCount() {
+        return mScanLineFrameCount;
+    }
+
+    /** Number of frames that were escalated to a full 2D decode. */
+    public long getFullFrameCount() {
+        return mFullFrameCount;
+    }
+}
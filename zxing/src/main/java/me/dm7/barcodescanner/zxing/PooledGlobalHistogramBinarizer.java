@@ -0,0 +1,166 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+
+/**
+ * <p>Same single global threshold as {@link GlobalHistogramBinarizer}, written into the buffers
+ * of a {@link ZXingDecodeContext}. Much cheaper than local thresholding, but only reliable when
+ * the framing rect is evenly lit.</p>
+ *
+ * <p>The threshold is estimated up front by {@link #estimateBlackPoint}, which also rejects frames
+ * whose sampled rows differ too much in brightness, so that the caller can go straight to
+ * {@link PooledHybridBinarizer} for those.</p>
+ */
+public final class PooledGlobalHistogramBinarizer extends GlobalHistogramBinarizer {
+    // Keep these in sync with GlobalHistogramBinarizer so that both pick the same threshold
+    private static final int LUMINANCE_BITS = 5;
+    private static final int LUMINANCE_SHIFT = 8 - LUMINANCE_BITS;
+    private static final int LUMINANCE_BUCKETS = 1 << LUMINANCE_BITS;
+
+    private static final int SAMPLE_ROWS = 4;
+    private static final int SAMPLE_SEGMENTS = 3;
+
+    /** Largest difference in white level between sampled areas of an evenly lit frame. */
+    public static final int MAX_EVEN_LIGHTING_RANGE = 48;
+
+    private final ZXingDecodeContext mContext;
+    private final int mBlackPoint;
+    private BitMatrix mMatrix;
+
+    /**
+     * @param blackPoint threshold as returned by {@link #estimateBlackPoint}
+     */
+    public PooledGlobalHistogramBinarizer(LuminanceSource source, ZXingDecodeContext context, int blackPoint) {
+        super(source);
+        mContext = context;
+        mBlackPoint = blackPoint;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() {
+        if (mMatrix != null) {
+            return mMatrix;
+        }
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] luminances = mContext.getLuminances(source);
+        BitMatrix matrix = mContext.getBitMatrix(width, height);
+        int blackPoint = mBlackPoint;
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                if ((luminances[offset + x] & 0xFF) < blackPoint) {
+                    matrix.set(x, y);
+                }
+            }
+        }
+        mMatrix = matrix;
+        return matrix;
+    }
+
+    /**
+     * Used by ZXing when it crops or rotates the bitmap, which is rare enough not to be pooled.
+     */
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new GlobalHistogramBinarizer(source);
+    }
+
+    /**
+     * Builds a luminance histogram from four rows through the middle three fifths of the source,
+     * like {@link GlobalHistogramBinarizer} does, and picks the valley between its two peaks.
+     *
+     * @return the black point, or -1 if the histogram has no clear black and white peaks or the
+     * white level of the sampled areas differs too much
+     */
+    public static int estimateBlackPoint(LuminanceSource source, ZXingDecodeContext context) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] buckets = context.getBuckets(LUMINANCE_BUCKETS);
+        int left = width / 5;
+        int right = (width * 4) / 5;
+        int segmentWidth = (right - left) / SAMPLE_SEGMENTS;
+        if (segmentWidth == 0) {
+            return -1;
+        }
+        // The brightest pixel of an area is white paper (or the white modules of the code), so it
+        // tracks the lighting rather than the content
+        int minWhite = 0xFF;
+        int maxWhite = 0;
+        for (int y = 1; y <= SAMPLE_ROWS; y++) {
+            byte[] row = context.getRow(source, height * y / (SAMPLE_ROWS + 1));
+            for (int segment = 0; segment < SAMPLE_SEGMENTS; segment++) {
+                int start = left + segment * segmentWidth;
+                int end = segment == SAMPLE_SEGMENTS - 1 ? right : start + segmentWidth;
+                int white = 0;
+                for (int x = start; x < end; x++) {
+                    int pixel = row[x] & 0xFF;
+                    buckets[pixel >> LUMINANCE_SHIFT]++;
+                    if (pixel > white) {
+                        white = pixel;
+                    }
+                }
+                minWhite = Math.min(minWhite, white);
+                maxWhite = Math.max(maxWhite, white);
+            }
+        }
+        if (maxWhite - minWhite > MAX_EVEN_LIGHTING_RANGE) {
+            return -1;
+        }
+        return estimateBlackPoint(buckets);
+    }
+
+    private static int estimateBlackPoint(int[] buckets) {
+        // Find the tallest peak in the histogram
+        int numBuckets = buckets.length;
+        int maxBucketCount = 0;
+        int firstPeak = 0;
+        int firstPeakSize = 0;
+        for (int x = 0; x < numBuckets; x++) {
+            if (buckets[x] > firstPeakSize) {
+                firstPeak = x;
+                firstPeakSize = buckets[x];
+            }
+            if (buckets[x] > maxBucketCount) {
+                maxBucketCount = buckets[x];
+            }
+        }
+
+        // Find the second peak, favouring buckets far away from the first one
+        int secondPeak = 0;
+        int secondPeakScore = 0;
+        for (int x = 0; x < numBuckets; x++) {
+            int distanceToBiggest = x - firstPeak;
+            int score = buckets[x] * distanceToBiggest * distanceToBiggest;
+            if (score > secondPeakScore) {
+                secondPeak = x;
+                secondPeakScore = score;
+            }
+        }
+        if (firstPeak > secondPeak) {
+            int temp = firstPeak;
+            firstPeak = secondPeak;
+            secondPeak = temp;
+        }
+        if (secondPeak - firstPeak <= numBuckets / 16) {
+            return -1;
+        }
+
+        // Find the deepest valley between the peaks, leaning towards the white peak
+        int bestValley = secondPeak - 1;
+        int bestValleyScore = -1;
+        for (int x = secondPeak - 1; x > firstPeak; x--) {
+            int fromFirst = x - firstPeak;
+            int score = fromFirst * fromFirst * (secondPeak - x) * (maxBucketCount - buckets[x]);
+            if (score > bestValleyScore) {
+                bestValley = x;
+                bestValleyScore = score;
+            }
+        }
+        return bestValley << LUMINANCE_SHIFT;
+    }
+}
@@ -0,0 +1,31 @@
+package me.dm7.barcodescanner.zxing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often each level of the decode pyramid of {@link ZXingScannerView} was decoded and
+ * how often it produced the result. Levels are given by their decimation factor, 1 being full
+ * resolution. Shared between decode threads.
+ */
+public class PyramidStats {
+    private final AtomicLongArray mFrameCounts = new AtomicLongArray(Integer.SIZE);
+    private final AtomicLongArray mHitCounts = new AtomicLongArray(Integer.SIZE);
+
+    void onLevelDecoded(int factor, boolean hit) {
+        int level = Integer.numberOfTrailingZeros(factor);
+        mFrameCounts.incrementAndGet(level);
+        if (hit) {
+            mHitCounts.incrementAndGet(level);
+        }
+    }
+
+    /** Number of frames decoded at the level scaled down by {@code factor}. */
+    public long getFrameCount(int factor) {
+        return mFrameCounts.get(Integer.numberOfTrailingZeros(factor));
+    }
+
+    /** Number of results found at the level scaled down by {@code factor}. */
+    public long getHitCount(int factor) {
+        return mHitCounts.get(Integer.numberOfTrailingZeros(factor));
+    }
+}
@@ -0,0 +1,149 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.LuminanceSource;
+
+import me.dm7.barcodescanner.core.RotationUtils;
+
+/**
+ * <p>Luminance source over a camera preview frame (NV21 or any other format whose first plane is
+ * Y) that presents the frame rotated clockwise by 0, 90, 180 or 270 degrees and cropped to a
+ * window, without making a rotated copy of the frame first.</p>
+ *
+ * <p>The crop window is given in the coordinates of the rotated frame. Rows are read straight
+ * from the camera buffer; {@link #getMatrix()} rotates only the cropped window. Cropping and
+ * rotating the source again only creates a new view on the same buffer.</p>
+ */
+public final class RotatedYUVLuminanceSource extends LuminanceSource {
+    private final byte[] mYuvData;
+    private final int mDataWidth;
+    private final int mDataHeight;
+    private final int mRotation;
+    private final int mLeft;
+    private final int mTop;
+
+    /**
+     * @param yuvData camera preview frame
+     * @param dataWidth width of the frame as delivered by the camera
+     * @param dataHeight height of the frame as delivered by the camera
+     * @param rotation clockwise rotation to apply: 0, 90, 180 or 270
+     * @param left left edge of the crop window in rotated coordinates
+     * @param top top edge of the crop window in rotated coordinates
+     * @param width width of the crop window
+     * @param height height of the crop window
+     */
+    public RotatedYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int rotation,
+                                     int left, int top, int width, int height) {
+        super(width, height);
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        }
+        int rotatedWidth = RotationUtils.getRotatedWidth(dataWidth, dataHeight, rotation);
+        int rotatedHeight = RotationUtils.getRotatedHeight(dataWidth, dataHeight, rotation);
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        mYuvData = yuvData;
+        mDataWidth = dataWidth;
+        mDataHeight = dataHeight;
+        mRotation = rotation;
+        mLeft = left;
+        mTop = top;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        byte[] data = mYuvData;
+        int dataWidth = mDataWidth;
+        int rotatedY = mTop + y;
+        switch (mRotation) {
+            case 0:
+                System.arraycopy(data, rotatedY * dataWidth + mLeft, row, 0, width);
+                break;
+            case 90: {
+                int offset = (mDataHeight - 1 - mLeft) * dataWidth + rotatedY;
+                for (int x = 0; x < width; x++) {
+                    row[x] = data[offset - x * dataWidth];
+                }
+                break;
+            }
+            case 180: {
+                int offset = (mDataHeight - 1 - rotatedY) * dataWidth + dataWidth - 1 - mLeft;
+                for (int x = 0; x < width; x++) {
+                    row[x] = data[offset - x];
+                }
+                break;
+            }
+            default: {
+                int offset = mLeft * dataWidth + dataWidth - 1 - rotatedY;
+                for (int x = 0; x < width; x++) {
+                    row[x] = data[offset + x * dataWidth];
+                }
+                break;
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        return getMatrix(null);
+    }
+
+    /**
+     * Same as {@link #getMatrix()}, but writes into {@code dst} when it is large enough instead of
+     * allocating a new array. When no rotation or cropping is needed the frame itself is returned.
+     */
+    public byte[] getMatrix(byte[] dst) {
+        int width = getWidth();
+        int height = getHeight();
+        int right = mLeft + width;
+        int bottom = mTop + height;
+        switch (mRotation) {
+            case 0:
+                if (width == mDataWidth && height == mDataHeight) {
+                    return mYuvData;
+                }
+                return RotationUtils.rotateCrop(mYuvData, mDataWidth, mLeft, mTop, width, height, 0, dst);
+            case 90:
+                return RotationUtils.rotateCrop(mYuvData, mDataWidth, mTop, mDataHeight - right,
+                        height, width, 90, dst);
+            case 180:
+                return RotationUtils.rotateCrop(mYuvData, mDataWidth, mDataWidth - right,
+                        mDataHeight - bottom, width, height, 180, dst);
+            default:
+                return RotationUtils.rotateCrop(mYuvData, mDataWidth, mDataWidth - bottom, mLeft,
+                        height, width, 270, dst);
+        }
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new RotatedYUVLuminanceSource(mYuvData, mDataWidth, mDataHeight, mRotation,
+                mLeft + left, mTop + top, width, height);
+    }
+
+    @Override
+    public boolean isRotateSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource rotateCounterClockwise() {
+        // Rotating the rotated frame counter-clockwise moves (x, y) to (y, rotatedWidth - 1 - x)
+        int rotatedWidth = RotationUtils.getRotatedWidth(mDataWidth, mDataHeight, mRotation);
+        return new RotatedYUVLuminanceSource(mYuvData, mDataWidth, mDataHeight, (mRotation + 270) % 360,
+                mTop, rotatedWidth - mLeft - getWidth(), getHeight(), getWidth());
+    }
+}
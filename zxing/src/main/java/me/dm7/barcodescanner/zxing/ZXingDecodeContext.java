@@ -0,0 +1,169 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * <p>Per decode thread arena holding the buffers ZXing needs to binarize a frame: the luminance
+ * matrix, the block black points and the {@link BitMatrix} itself, plus the scaled down planes of
+ * a decode pyramid. As long as consecutive frames have the same dimensions, nothing but a few
+ * small wrapper objects is allocated per frame.</p>
+ *
+ * <p>A context is not thread-safe, and the bitmaps it hands out are only valid until the next
+ * call to {@link #createBitmap(LuminanceSource)}.</p>
+ */
+public final class ZXingDecodeContext {
+    // One matrix for every pyramid level that is decoded in turn
+    private static final int MATRIX_CACHE_SIZE = 3;
+
+    private byte[] mLuminances;
+    private int[] mBlackPoints;
+    private final BitMatrix[] mMatrices = new BitMatrix[MATRIX_CACHE_SIZE];
+    private int mNextMatrix;
+    // Indexed by the log2 of the decimation factor
+    private final byte[][] mDecimatedLuminances = new byte[Integer.SIZE][];
+    private int[] mBuckets;
+    private byte[] mRow;
+
+    private long mFrameCount;
+    private long mAllocationCount;
+
+    /**
+     * @return a bitmap over {@code source} that is binarized into the buffers of this context
+     */
+    public BinaryBitmap createBitmap(LuminanceSource source) {
+        mFrameCount++;
+        return new BinaryBitmap(new PooledHybridBinarizer(source, this));
+    }
+
+    /**
+     * @return a bitmap over {@code source} that is thresholded at a single global black point, or
+     * null if the source is not evenly lit enough for that; see {@link PooledGlobalHistogramBinarizer}
+     */
+    public BinaryBitmap createGlobalHistogramBitmap(LuminanceSource source) {
+        int blackPoint = PooledGlobalHistogramBinarizer.estimateBlackPoint(source, this);
+        if (blackPoint < 0) {
+            return null;
+        }
+        mFrameCount++;
+        return new BinaryBitmap(new PooledGlobalHistogramBinarizer(source, this, blackPoint));
+    }
+
+    /**
+     * Scales {@code source} down by {@code factor} in both directions, averaging every
+     * {@code factor} x {@code factor} block into one pixel.
+     *
+     * @param factor a power of two
+     * @return the scaled down source, backed by a buffer of this context that is only valid until
+     * the next call with the same factor
+     */
+    public LuminanceSource createDecimatedSource(LuminanceSource source, int factor) {
+        if (factor < 2 || Integer.bitCount(factor) != 1) {
+            throw new IllegalArgumentException("factor must be a power of two greater than 1");
+        }
+        int stride = source.getWidth();
+        int width = stride / factor;
+        int height = source.getHeight() / factor;
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        int level = Integer.numberOfTrailingZeros(factor);
+        int shift = 2 * level;
+        byte[] decimated = mDecimatedLuminances[level];
+        if (decimated == null || decimated.length != width * height) {
+            decimated = new byte[width * height];
+            mDecimatedLuminances[level] = decimated;
+            mAllocationCount++;
+        }
+        byte[] luminances = getLuminances(source);
+        for (int y = 0; y < height; y++) {
+            int rowOffset = y * factor * stride;
+            for (int x = 0; x < width; x++) {
+                int blockOffset = rowOffset + x * factor;
+                int sum = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    int offset = blockOffset + dy * stride;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += luminances[offset + dx] & 0xFF;
+                    }
+                }
+                decimated[y * width + x] = (byte) (sum >> shift);
+            }
+        }
+        return new PlanarYUVLuminanceSource(decimated, width, height, 0, 0, width, height, false);
+    }
+
+    byte[] getLuminances(LuminanceSource source) {
+        if (!(source instanceof RotatedYUVLuminanceSource)) {
+            return source.getMatrix();
+        }
+        int size = source.getWidth() * source.getHeight();
+        if (mLuminances == null || mLuminances.length < size) {
+            mLuminances = new byte[size];
+            mAllocationCount++;
+        }
+        // Returns the frame itself when it needs neither cropping nor rotating
+        return ((RotatedYUVLuminanceSource) source).getMatrix(mLuminances);
+    }
+
+    /**
+     * @return a zeroed histogram with {@code size} buckets
+     */
+    int[] getBuckets(int size) {
+        if (mBuckets == null || mBuckets.length != size) {
+            mBuckets = new int[size];
+            mAllocationCount++;
+        } else {
+            for (int i = 0; i < size; i++) {
+                mBuckets[i] = 0;
+            }
+        }
+        return mBuckets;
+    }
+
+    byte[] getRow(LuminanceSource source, int y) {
+        byte[] row = source.getRow(y, mRow);
+        if (row != mRow) {
+            mRow = row;
+            mAllocationCount++;
+        }
+        return row;
+    }
+
+    int[] getBlackPoints(int size) {
+        if (mBlackPoints == null || mBlackPoints.length < size) {
+            mBlackPoints = new int[size];
+            mAllocationCount++;
+        }
+        return mBlackPoints;
+    }
+
+    /**
+     * @return a cleared matrix of the given size, reusing the previous one when possible
+     */
+    BitMatrix getBitMatrix(int width, int height) {
+        for (BitMatrix matrix : mMatrices) {
+            if (matrix != null && matrix.getWidth() == width && matrix.getHeight() == height) {
+                matrix.clear();
+                return matrix;
+            }
+        }
+        BitMatrix matrix = new BitMatrix(width, height);
+        mMatrices[mNextMatrix] = matrix;
+        mNextMatrix = (mNextMatrix + 1) % MATRIX_CACHE_SIZE;
+        mAllocationCount++;
+        return matrix;
+    }
+
+    /** Number of frames binarized with this context. */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Number of buffers allocated by this context; stops growing once the frame size is stable. */
+    public long getAllocationCount() {
+        return mAllocationCount;
+    }
+}
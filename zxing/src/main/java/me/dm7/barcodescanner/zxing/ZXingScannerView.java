@@ -1,31 +1,36 @@
 package me.dm7.barcodescanner.zxing;
 
 import android.content.Context;
-import android.content.res.Configuration;
 import android.graphics.Rect;
-import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.MultiFormatReader;
 import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Reader;
 import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
 import me.dm7.barcodescanner.core.BarcodeScannerView;
-import me.dm7.barcodescanner.core.DisplayUtils;
+import me.dm7.barcodescanner.core.CameraGeometry;
+import me.dm7.barcodescanner.core.FrameDecoder;
+import me.dm7.barcodescanner.core.PreviewFrame;
+import me.dm7.barcodescanner.core.RegionOfInterestTracker;
+import me.dm7.barcodescanner.core.ResultDispatcher;
 
 public class ZXingScannerView extends BarcodeScannerView {
     private static final String TAG = "ZXingScannerView";
@@ -34,10 +39,37 @@ public class ZXingScannerView extends BarcodeScannerView {
         public void handleResult(Result rawResult);
     }
 
-    private MultiFormatReader mMultiFormatReader;
+    public interface MultipleResultHandler {
+        public void handleResults(List<Result> rawResults);
+    }
+
+    /** Binarize every frame with local thresholds ({@code HybridBinarizer}). */
+    public static final int BINARIZER_HYBRID = 0;
+    /** Try a single global threshold first, local thresholds only when that finds nothing. */
+    public static final int BINARIZER_CASCADE = 1;
+
+    private volatile Map<DecodeHintType,Object> mHints;
+    private volatile FormatHitStats mFormatHitStats;
+    /** Minimum time between two saves of the format hit stats on result delivery. */
+    public static final long STATS_SAVE_INTERVAL_MILLIS = 30000;
+    private long mStatsSaveTime;
+    private volatile int mScanLineCount = OneDScanLineDecoder.DEFAULT_SCAN_LINE_COUNT;
+    private volatile int mBinarizerStrategy = BINARIZER_HYBRID;
+    private final BinarizerStats mBinarizerStats = new BinarizerStats();
+    private volatile int mPyramidFactor = 1;
+    private final PyramidStats mPyramidStats = new PyramidStats();
+    private static final int DISPATCH_CONTINUOUS = 1;
+    private static final int MIN_PYRAMID_LEVEL_SIZE = 64;
+    private final ResultDispatcher mResultDispatcher = new ResultDispatcher(new ResultDispatcher.Receiver() {
+        @Override
+        public void onResult(Object result, int flags) {
+            onResultDispatched((Result[]) result, flags);
+        }
+    });
     public static final List<BarcodeFormat> ALL_FORMATS = new ArrayList<BarcodeFormat>();
     private List<BarcodeFormat> mFormats;
-    private ResultHandler mResultHandler;
+    private volatile ResultHandler mResultHandler;
+    private volatile MultipleResultHandler mMultipleResultHandler;
 
     static {
         ALL_FORMATS.add(BarcodeFormat.UPC_A);
@@ -74,6 +106,14 @@ public class ZXingScannerView extends BarcodeScannerView {
         mResultHandler = resultHandler;
     }
 
+    /**
+     * Decodes all barcodes in a frame instead of only the first one, and delivers them together
+     * as soon as a frame holds at least one. Takes precedence over the {@link ResultHandler}.
+     */
+    public void setMultipleResultHandler(MultipleResultHandler multipleResultHandler) {
+        mMultipleResultHandler = multipleResultHandler;
+    }
+
     public Collection<BarcodeFormat> getFormats() {
         if(mFormats == null) {
             return ALL_FORMATS;
@@ -81,81 +121,483 @@ public class ZXingScannerView extends BarcodeScannerView {
         return mFormats;
     }
 
+    /**
+     * <p>Orders the readers by how often each format was decoded, and most of the time skips
+     * formats that are hardly ever scanned. See {@link AdaptiveMultiFormatReader}.</p>
+     *
+     * <p>The counts are loaded from and saved to {@link FormatHitStats#getDefaultPreferences},
+     * so the ordering carries over to the next session. They are saved when the camera stops,
+     * when the view is detached, and at most every {@link #STATS_SAVE_INTERVAL_MILLIS} when a
+     * result is delivered.</p>
+     */
+    public void setAdaptiveFormatOrdering(boolean enabled) {
+        if (enabled && mFormatHitStats == null) {
+            FormatHitStats stats = new FormatHitStats();
+            stats.load(FormatHitStats.getDefaultPreferences(getContext()));
+            mFormatHitStats = stats;
+        } else if (!enabled && mFormatHitStats != null) {
+            saveFormatHitStats();
+            mFormatHitStats = null;
+        }
+    }
+
+    /**
+     * @return the hit counts used for adaptive format ordering, or null if it is disabled
+     */
+    public FormatHitStats getFormatHitStats() {
+        return mFormatHitStats;
+    }
+
+    private void saveFormatHitStats() {
+        FormatHitStats stats = mFormatHitStats;
+        if (stats != null) {
+            stats.save(FormatHitStats.getDefaultPreferences(getContext()));
+            mStatsSaveTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Saves the stats on result delivery, so they survive the process being killed while the
+     * camera keeps running, without writing preferences for every result.
+     */
+    private void maybeSaveFormatHitStats() {
+        if (mFormatHitStats != null
+                && SystemClock.elapsedRealtime() - mStatsSaveTime >= STATS_SAVE_INTERVAL_MILLIS) {
+            saveFormatHitStats();
+        }
+    }
+
+    @Override
+    public void stopCamera() {
+        super.stopCamera();
+        saveFormatHitStats();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        saveFormatHitStats();
+    }
+
+    /**
+     * When all formats are 1D, frames are first decoded from {@code count} scan lines through the
+     * framing rect, which is much cheaper than binarizing the whole rect. Only after a few frames
+     * without a result are frames decoded the regular way, until one of them finds a code or
+     * {@link OneDScanLineDecoder#DEFAULT_ESCALATE_FOR} frames have passed. Pass 0 to always
+     * decode the whole framing rect.
+     */
+    public void setScanLineCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+        // The decode threads pick the count up with their next frame
+        mScanLineCount = count;
+    }
+
+    public int getScanLineCount() {
+        return mScanLineCount;
+    }
+
+    /**
+     * <p>Selects how frames are binarized before they are handed to the readers.</p>
+     *
+     * <p>{@link #BINARIZER_CASCADE} first thresholds the frame at a single black point, which is
+     * about as cheap as it gets and works well for evenly lit scenes. Frames that show uneven
+     * lighting (e.g. glare) or where the first pass finds nothing are binarized again with local
+     * thresholds, as with {@link #BINARIZER_HYBRID}, the default.</p>
+     */
+    public void setBinarizerStrategy(int strategy) {
+        if (strategy != BINARIZER_HYBRID && strategy != BINARIZER_CASCADE) {
+            throw new IllegalArgumentException("Unknown binarizer strategy: " + strategy);
+        }
+        mBinarizerStrategy = strategy;
+    }
+
+    public int getBinarizerStrategy() {
+        return mBinarizerStrategy;
+    }
+
+    /**
+     * @return counts of which binarizer ran and which one produced the result
+     */
+    public BinarizerStats getBinarizerStats() {
+        return mBinarizerStats;
+    }
+
+    /**
+     * <p>Decodes frames coarse to fine: first scaled down by {@code factor}, then by half that
+     * factor and so on, and at full resolution only when the smaller levels find nothing. Close
+     * codes are large enough to be found at a fraction of the cost, and frames without a code only
+     * pay a fraction more.</p>
+     *
+     * <p>Levels smaller than {@value #MIN_PYRAMID_LEVEL_SIZE} pixels on a side are skipped. Pass 1,
+     * the default, to always decode at full resolution.</p>
+     *
+     * @param factor 1, 2 or 4
+     */
+    public void setPyramidFactor(int factor) {
+        if (factor != 1 && factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("factor must be 1, 2 or 4");
+        }
+        mPyramidFactor = factor;
+    }
+
+    public int getPyramidFactor() {
+        return mPyramidFactor;
+    }
+
+    /**
+     * @return counts of how often each pyramid level was decoded and produced the result
+     */
+    public PyramidStats getPyramidStats() {
+        return mPyramidStats;
+    }
+
+    /**
+     * @return number of continuous-scanning results dropped because the main thread fell behind
+     */
+    public long getDroppedResultCount() {
+        return mResultDispatcher.getDropCount();
+    }
+
     private void initMultiFormatReader() {
         Map<DecodeHintType,Object> hints = new EnumMap<DecodeHintType,Object>(DecodeHintType.class);
         hints.put(DecodeHintType.POSSIBLE_FORMATS, getFormats());
-        mMultiFormatReader = new MultiFormatReader();
-        mMultiFormatReader.setHints(hints);
+        mHints = hints;
     }
 
     @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
-        if(mResultHandler == null) {
-            return;
-        }
-        
-        try {
-            Camera.Parameters parameters = camera.getParameters();
-            Camera.Size size = parameters.getPreviewSize();
-            int width = size.width;
-            int height = size.height;
-
-            if (DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
-                byte[] rotatedData = new byte[data.length];
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++)
-                        rotatedData[x * height + height - y - 1] = data[x + y * width];
+    protected FrameDecoder createFrameDecoder() {
+        return new ZXingFrameDecoder();
+    }
+
+    /**
+     * Decodes frames for a single decode thread. {@link MultiFormatReader} is not thread-safe,
+     * so every decoder keeps its own reader and rebuilds it when the formats change. It also
+     * keeps its own {@link ZXingDecodeContext}, so binarizing a frame does not allocate, and its
+     * own {@link OneDScanLineDecoder} when only 1D formats are scanned.
+     */
+    private class ZXingFrameDecoder implements FrameDecoder {
+        private final ZXingDecodeContext mDecodeContext = new ZXingDecodeContext();
+        private Map<DecodeHintType,Object> mReaderHints;
+        private FormatHitStats mReaderStats;
+        private MultiFormatReader mMultiFormatReader;
+        private AdaptiveMultiFormatReader mAdaptiveReader;
+        private OneDScanLineDecoder mScanLineDecoder;
+        private int mReaderScanLineCount;
+        private final Rect mWindow = new Rect();
+        private final Rect mBounds = new Rect();
+
+        @Override
+        public boolean decode(PreviewFrame frame) {
+            if(mResultHandler == null && mMultipleResultHandler == null) {
+                return false;
+            }
+            if (mReaderHints != mHints || mReaderStats != mFormatHitStats) {
+                mReaderHints = mHints;
+                mReaderStats = mFormatHitStats;
+                if (mReaderStats != null) {
+                    mAdaptiveReader = new AdaptiveMultiFormatReader(mReaderHints, mReaderStats);
+                    mMultiFormatReader = null;
+                } else {
+                    mMultiFormatReader = new MultiFormatReader();
+                    mMultiFormatReader.setHints(mReaderHints);
+                    mAdaptiveReader = null;
                 }
-                int tmp = width;
-                width = height;
-                height = tmp;
-                data = rotatedData;
-            }
-
-            Result rawResult = null;
-            PlanarYUVLuminanceSource source = buildLuminanceSource(data, width, height);
-
-            if (source != null) {
-                BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-                try {
-                    rawResult = mMultiFormatReader.decodeWithState(bitmap);
-                } catch (ReaderException re) {
-                    // continue
-                } catch (NullPointerException npe) {
-                    // This is terrible
-                } catch (ArrayIndexOutOfBoundsException aoe) {
-
-                } finally {
-                    mMultiFormatReader.reset();
+                mReaderScanLineCount = mScanLineCount;
+                mScanLineDecoder = createScanLineDecoder(mReaderHints, mReaderScanLineCount);
+            } else if (mReaderScanLineCount != mScanLineCount) {
+                mReaderScanLineCount = mScanLineCount;
+                if (mScanLineDecoder != null && mReaderScanLineCount > 0) {
+                    mScanLineDecoder.setScanLineCount(mReaderScanLineCount);
+                } else {
+                    mScanLineDecoder = createScanLineDecoder(mReaderHints, mReaderScanLineCount);
                 }
             }
+            return decodeFrame(frame, this);
+        }
+    }
 
-            final Result finalRawResult = rawResult;
-
-            if (finalRawResult != null) {
-                Handler handler = new Handler(Looper.getMainLooper());
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Stopping the preview can take a little long.
-                        // So we want to set result handler to null to discard subsequent calls to
-                        // onPreviewFrame.
-                        ResultHandler tmpResultHandler = mResultHandler;
-                        mResultHandler = null;
-
-                        stopCameraPreview();
-                        if (tmpResultHandler != null) {
-                            tmpResultHandler.handleResult(finalRawResult);
-                        }
-                    }
-                });
-            } else {
-                camera.setOneShotPreviewCallback(this);
+    @SuppressWarnings("unchecked")
+    private OneDScanLineDecoder createScanLineDecoder(Map<DecodeHintType,Object> hints, int scanLineCount) {
+        Collection<BarcodeFormat> formats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        if (scanLineCount == 0 || !OneDScanLineDecoder.isOneDOnly(formats)) {
+            return null;
+        }
+        return new OneDScanLineDecoder(hints, scanLineCount, OneDScanLineDecoder.DEFAULT_ESCALATE_AFTER);
+    }
+
+    /**
+     * @return true if a code was found
+     */
+    private boolean decodeFrame(PreviewFrame frame, ZXingFrameDecoder decoder) {
+        try {
+            CameraGeometry geometry = frame.getGeometry();
+            Rect framingRect = getFramingRect(geometry);
+            if (framingRect == null) {
+                return false;
+            }
+            long start = System.nanoTime();
+            RegionOfInterestTracker tracker = getRegionOfInterestTracker();
+            boolean windowed = tracker != null && tracker.getWindow(framingRect, decoder.mWindow);
+            Rect rect = windowed ? decoder.mWindow : framingRect;
+            boolean multiple = mMultipleResultHandler != null;
+            if (decoder.mAdaptiveReader != null) {
+                decoder.mAdaptiveReader.startFrame();
+            }
+            Result[] rawResults = decodeSource(buildLuminanceSource(frame.getData(), geometry, rect), decoder, multiple);
+            if (rawResults != null && decoder.mReaderStats != null) {
+                recordHits(decoder.mReaderStats, rawResults);
+            }
+            if (tracker != null) {
+                Rect bounds = rawResults != null ? getBounds(rawResults, rect, decoder.mBounds) : null;
+                tracker.onFrameDecoded(windowed, rawResults != null, bounds, System.nanoTime() - start);
+            }
+
+            boolean continuous = isContinuousScanning();
+            Result[] claimedResults = rawResults != null ? claimResults(frame, rawResults) : null;
+
+            if (claimedResults != null) {
+                mResultDispatcher.dispatch(claimedResults, continuous ? DISPATCH_CONTINUOUS : 0);
             }
+            return rawResults != null;
         } catch(RuntimeException e) {
             // TODO: Terrible hack. It is possible that this method is invoked after camera is released.
             Log.e(TAG, e.toString(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Records each format found in a camera frame once, however many codes of it were found.
+     */
+    private static void recordHits(FormatHitStats stats, Result[] rawResults) {
+        for (int i = 0; i < rawResults.length; i++) {
+            BarcodeFormat format = rawResults[i].getBarcodeFormat();
+            boolean seen = false;
+            for (int j = 0; j < i && !seen; j++) {
+                seen = rawResults[j].getBarcodeFormat() == format;
+            }
+            if (!seen) {
+                stats.recordHit(format);
+            }
+        }
+    }
+
+    /**
+     * @return the first result, or all results if {@code multiple} is set, or null if nothing
+     * was found
+     */
+    private Result[] decodeSource(LuminanceSource source, ZXingFrameDecoder decoder, boolean multiple) {
+        Result[] rawResults = null;
+
+        // Scan lines stop at the first code, so they are not used to find all codes
+        OneDScanLineDecoder scanLineDecoder = decoder.mScanLineDecoder;
+        if (source != null && !multiple && scanLineDecoder != null && !scanLineDecoder.isEscalating()) {
+            Result rawResult = scanLineDecoder.decode(source);
+            if (rawResult != null) {
+                rawResults = new Result[] { rawResult };
+            }
+        } else if (source != null) {
+            rawResults = decodePyramid(source, decoder, multiple);
+            if (scanLineDecoder != null && !multiple) {
+                scanLineDecoder.onFullFrameDecoded(rawResults != null);
+            }
         }
+        return rawResults;
+    }
+
+    /**
+     * Computes the bounds of the result points in the coordinates of the rotated frame.
+     *
+     * @param rect the area of the rotated frame the results were decoded from
+     * @return {@code bounds}, or null if the results have no points
+     */
+    private static Rect getBounds(Result[] rawResults, Rect rect, Rect bounds) {
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (Result rawResult : rawResults) {
+            ResultPoint[] points = rawResult.getResultPoints();
+            if (points == null) {
+                continue;
+            }
+            for (ResultPoint point : points) {
+                if (point == null) {
+                    continue;
+                }
+                left = Math.min(left, point.getX());
+                top = Math.min(top, point.getY());
+                right = Math.max(right, point.getX());
+                bottom = Math.max(bottom, point.getY());
+            }
+        }
+        if (left > right) {
+            return null;
+        }
+        bounds.set(rect.left + (int) left, rect.top + (int) top,
+                rect.left + (int) Math.ceil(right), rect.top + (int) Math.ceil(bottom));
+        return bounds;
+    }
+
+    private void onResultDispatched(Result[] rawResults, int flags) {
+        maybeSaveFormatHitStats();
+        if ((flags & DISPATCH_CONTINUOUS) != 0) {
+            deliverResults(rawResults);
+            return;
+        }
+        // Stopping the preview can take a little long.
+        // So we want to set result handler to null to discard subsequent calls to
+        // onPreviewFrame.
+        ResultHandler tmpResultHandler = mResultHandler;
+        MultipleResultHandler tmpMultipleResultHandler = mMultipleResultHandler;
+        mResultHandler = null;
+        mMultipleResultHandler = null;
+
+        stopCameraPreview();
+        if (tmpMultipleResultHandler != null) {
+            tmpMultipleResultHandler.handleResults(Arrays.asList(rawResults));
+        } else if (tmpResultHandler != null) {
+            tmpResultHandler.handleResult(rawResults[0]);
+        }
+    }
+
+    /**
+     * Drops results that were seen recently and claims the rest.
+     *
+     * @return the results that should be delivered, or null if there are none
+     */
+    private Result[] claimResults(PreviewFrame frame, Result[] rawResults) {
+        if (!isFrameCurrent(frame)) {
+            return null;
+        }
+        int count = 0;
+        for (Result rawResult : rawResults) {
+            if (!isDuplicateResult(rawResult.getBarcodeFormat(), rawResult.getText())) {
+                rawResults[count++] = rawResult;
+            }
+        }
+        if (count == 0 || !claimResult(frame)) {
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            recordResult(rawResults[i].getBarcodeFormat(), rawResults[i].getText());
+        }
+        return count == rawResults.length ? rawResults : Arrays.copyOf(rawResults, count);
+    }
+
+    /**
+     * Delivers results in continuous mode, where the handlers stay set and the preview keeps
+     * running.
+     */
+    private void deliverResults(Result[] rawResults) {
+        MultipleResultHandler multipleResultHandler = mMultipleResultHandler;
+        ResultHandler resultHandler = mResultHandler;
+        if (multipleResultHandler != null) {
+            multipleResultHandler.handleResults(Arrays.asList(rawResults));
+        } else if (resultHandler != null) {
+            for (Result rawResult : rawResults) {
+                resultHandler.handleResult(rawResult);
+            }
+        }
+    }
+
+    private Result[] decodePyramid(LuminanceSource source, ZXingFrameDecoder decoder, boolean multiple) {
+        int pyramidFactor = mPyramidFactor;
+        for (int factor = pyramidFactor; factor > 1; factor /= 2) {
+            if (Math.min(source.getWidth(), source.getHeight()) / factor < MIN_PYRAMID_LEVEL_SIZE) {
+                continue;
+            }
+            LuminanceSource level = decoder.mDecodeContext.createDecimatedSource(source, factor);
+            Result[] results = decodeBinarized(level, decoder, multiple);
+            mPyramidStats.onLevelDecoded(factor, results != null);
+            if (results != null) {
+                return scaleResultPoints(results, factor);
+            }
+        }
+        Result[] results = decodeBinarized(source, decoder, multiple);
+        if (pyramidFactor > 1) {
+            mPyramidStats.onLevelDecoded(1, results != null);
+        }
+        return results;
+    }
+
+    /**
+     * Maps the points of results found in a scaled down level back to full resolution.
+     */
+    private static Result[] scaleResultPoints(Result[] rawResults, int factor) {
+        // Points sit on the centre of a block of factor x factor pixels
+        float offset = (factor - 1) / 2f;
+        for (int i = 0; i < rawResults.length; i++) {
+            Result rawResult = rawResults[i];
+            ResultPoint[] points = rawResult.getResultPoints();
+            ResultPoint[] scaledPoints = null;
+            if (points != null) {
+                scaledPoints = new ResultPoint[points.length];
+                for (int j = 0; j < points.length; j++) {
+                    ResultPoint point = points[j];
+                    scaledPoints[j] = point == null ? null
+                            : new ResultPoint(point.getX() * factor + offset, point.getY() * factor + offset);
+                }
+            }
+            Result scaledResult = new Result(rawResult.getText(), rawResult.getRawBytes(), scaledPoints,
+                    rawResult.getBarcodeFormat(), rawResult.getTimestamp());
+            if (rawResult.getResultMetadata() != null) {
+                scaledResult.putAllMetadata(rawResult.getResultMetadata());
+            }
+            rawResults[i] = scaledResult;
+        }
+        return rawResults;
+    }
+
+    private Result[] decodeBinarized(LuminanceSource source, ZXingFrameDecoder decoder, boolean multiple) {
+        ZXingDecodeContext context = decoder.mDecodeContext;
+        if (mBinarizerStrategy == BINARIZER_CASCADE) {
+            BinaryBitmap bitmap = context.createGlobalHistogramBitmap(source);
+            if (bitmap != null) {
+                Result[] results = decodeBitmap(bitmap, decoder, multiple);
+                mBinarizerStats.onGlobalHistogramFrame(results != null);
+                if (results != null) {
+                    return results;
+                }
+            } else {
+                mBinarizerStats.onUnevenFrame();
+            }
+        }
+        Result[] results = decodeBitmap(context.createBitmap(source), decoder, multiple);
+        mBinarizerStats.onHybridFrame(results != null);
+        return results;
+    }
+
+    /**
+     * @return the first result, or all results if {@code multiple} is set, or null if nothing
+     * was found
+     */
+    private Result[] decodeBitmap(BinaryBitmap bitmap, ZXingFrameDecoder decoder, boolean multiple) {
+        try {
+            if (multiple) {
+                Reader reader = decoder.mAdaptiveReader != null ? decoder.mAdaptiveReader : decoder.mMultiFormatReader;
+                return new GenericMultipleBarcodeReader(reader).decodeMultiple(bitmap, decoder.mReaderHints);
+            } else if (decoder.mAdaptiveReader != null) {
+                return new Result[] { decoder.mAdaptiveReader.decode(bitmap) };
+            } else {
+                return new Result[] { decoder.mMultiFormatReader.decodeWithState(bitmap) };
+            }
+        } catch (ReaderException re) {
+            // continue
+        } catch (NullPointerException npe) {
+            // This is terrible
+        } catch (ArrayIndexOutOfBoundsException aoe) {
+
+        } finally {
+            if (decoder.mAdaptiveReader != null) {
+                decoder.mAdaptiveReader.reset();
+            } else {
+                decoder.mMultiFormatReader.reset();
+            }
+        }
+        return null;
     }
 
     public void resumeCameraPreview(ResultHandler resultHandler) {
@@ -163,6 +605,35 @@ public class ZXingScannerView extends BarcodeScannerView {
         super.resumeCameraPreview();
     }
 
+    public void resumeCameraPreview(MultipleResultHandler multipleResultHandler) {
+        mMultipleResultHandler = multipleResultHandler;
+        super.resumeCameraPreview();
+    }
+
+    /**
+     * Builds a source that reads the framing rect of the frame as if the frame had been rotated
+     * by {@link CameraGeometry#getFrameRotation()}, without making a rotated copy of the frame.
+     */
+    public LuminanceSource buildLuminanceSource(byte[] data, CameraGeometry geometry) {
+        Rect rect = getFramingRect(geometry);
+        if (rect == null) {
+            return null;
+        }
+        return buildLuminanceSource(data, geometry, rect);
+    }
+
+    private LuminanceSource buildLuminanceSource(byte[] data, CameraGeometry geometry, Rect rect) {
+        LuminanceSource source = null;
+
+        try {
+            source = new RotatedYUVLuminanceSource(data, geometry.getPreviewWidth(), geometry.getPreviewHeight(),
+                    geometry.getFrameRotation(), rect.left, rect.top, rect.width(), rect.height());
+        } catch(Exception e) {
+        }
+
+        return source;
+    }
+
     public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
         Rect rect = getFramingRectInPreview(width, height);
         if (rect == null) {
@@ -0,0 +1,64 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OneDScanLineDecoderTest {
+    private static final int ESCALATE_AFTER = 4;
+    private static final int ESCALATE_FOR = 3;
+
+    @Test
+    public void staysEscalatedForWindowWithoutResult() {
+        OneDScanLineDecoder decoder = escalatedDecoder();
+        for (int i = 0; i < ESCALATE_FOR - 1; i++) {
+            decoder.onFullFrameDecoded(false);
+            assertTrue("after " + (i + 1) + " full frames", decoder.isEscalating());
+        }
+        decoder.onFullFrameDecoded(false);
+        assertFalse(decoder.isEscalating());
+    }
+
+    @Test
+    public void resultEndsEscalation() {
+        OneDScanLineDecoder decoder = escalatedDecoder();
+        decoder.onFullFrameDecoded(false);
+        assertTrue(decoder.isEscalating());
+        decoder.onFullFrameDecoded(true);
+        assertFalse(decoder.isEscalating());
+    }
+
+    @Test
+    public void scanLineCountChangeKeepsEscalation() {
+        OneDScanLineDecoder decoder = escalatedDecoder();
+        decoder.onFullFrameDecoded(false);
+        decoder.setScanLineCount(2);
+        assertTrue(decoder.isEscalating());
+    }
+
+    private static OneDScanLineDecoder escalatedDecoder() {
+        Map<DecodeHintType,Object> hints = new EnumMap<DecodeHintType,Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, Collections.singletonList(BarcodeFormat.CODE_128));
+        OneDScanLineDecoder decoder = new OneDScanLineDecoder(hints, 8, ESCALATE_AFTER, ESCALATE_FOR);
+        // A flat frame has no contrast, so no scan line finds a code
+        LuminanceSource blank = new PlanarYUVLuminanceSource(new byte[64 * 48 * 3 / 2], 64, 48,
+                0, 0, 64, 48, false);
+        for (int i = 0; i < ESCALATE_AFTER; i++) {
+            assertFalse(decoder.isEscalating());
+            assertNull(decoder.decode(blank));
+        }
+        assertTrue(decoder.isEscalating());
+        return decoder;
+    }
+}
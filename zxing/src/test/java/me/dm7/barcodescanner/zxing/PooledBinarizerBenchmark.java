@@ -0,0 +1,94 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated and time spent per decoded frame with a plain HybridBinarizer versus the
+ * pooled binarizers of a ZXingDecodeContext, on 1280x720 frames rotated into portrait. Needs a
+ * JVM that reports per thread allocations (HotSpot does). Skipped unless run with
+ * {@code -Dbenchmark=true}.
+ */
+public class PooledBinarizerBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 200;
+
+    @Test
+    public void allocationsPerFrame() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[][] frames = {qrFrame(), noiseFrame()};
+        MultiFormatReader reader = new MultiFormatReader();
+        ZXingDecodeContext context = new ZXingDecodeContext();
+        for (boolean pooled : new boolean[] {false, true, false, true}) {
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                decode(reader, context, frames[i % frames.length], pooled);
+            }
+            long threadId = Thread.currentThread().getId();
+            long startBytes = threads.getThreadAllocatedBytes(threadId);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                decode(reader, context, frames[i % frames.length], pooled);
+            }
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+            System.out.println(String.format("%s: %d KiB allocated per frame, %.2f ms per frame",
+                    pooled ? "pooled" : "HybridBinarizer", bytes / FRAMES / 1024, nanos / 1e6 / FRAMES));
+        }
+    }
+
+    private static void decode(MultiFormatReader reader, ZXingDecodeContext context, byte[] frame,
+                               boolean pooled) {
+        LuminanceSource source = new RotatedYUVLuminanceSource(frame, WIDTH, HEIGHT, 90, 0, 0, HEIGHT, WIDTH);
+        BinaryBitmap bitmap = pooled ? context.createBitmap(source) : new BinaryBitmap(new HybridBinarizer(source));
+        try {
+            reader.decodeWithState(bitmap);
+        } catch (ReaderException e) {
+            // No code in this frame
+        } finally {
+            reader.reset();
+        }
+    }
+
+    private static byte[] qrFrame() throws Exception {
+        BitMatrix code = new QRCodeWriter().encode("PooledBinarizerBenchmark", BarcodeFormat.QR_CODE, 300, 300);
+        byte[] frame = noiseFrame();
+        int left = (WIDTH - code.getWidth()) / 2;
+        int top = (HEIGHT - code.getHeight()) / 2;
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                frame[(top + y) * WIDTH + left + x] = code.get(x, y) ? (byte) 30 : (byte) 220;
+            }
+        }
+        return frame;
+    }
+
+    private static byte[] noiseFrame() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Random random = new Random(5);
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (100 + random.nextInt(60));
+        }
+        return frame;
+    }
+}
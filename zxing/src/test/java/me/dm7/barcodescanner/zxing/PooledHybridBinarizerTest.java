@@ -0,0 +1,82 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PooledHybridBinarizerTest {
+    // Odd sizes leave partial blocks at the right and bottom edges; 30 is below the hybrid minimum
+    private static final int[][] SIZES = {{40, 40}, {101, 57}, {320, 240}, {333, 199}, {30, 90}};
+
+    private final Random mRandom = new Random(11);
+
+    @Test
+    public void matchesHybridBinarizer() throws Exception {
+        ZXingDecodeContext context = new ZXingDecodeContext();
+        for (int round = 0; round < 3; round++) {
+            for (int[] size : SIZES) {
+                LuminanceSource source = source(size[0], size[1]);
+                assertEquals(size[0] + "x" + size[1],
+                        new HybridBinarizer(source).getBlackMatrix(),
+                        new PooledHybridBinarizer(source, context).getBlackMatrix());
+            }
+        }
+    }
+
+    @Test
+    public void matchesHybridBinarizerOnRotatedSource() throws Exception {
+        ZXingDecodeContext context = new ZXingDecodeContext();
+        byte[] frame = frame(160, 120);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            LuminanceSource source = new RotatedYUVLuminanceSource(frame, 160, 120, rotation, 3, 5, 100, 90);
+            assertEquals("rotated by " + rotation, new HybridBinarizer(source).getBlackMatrix(),
+                    new PooledHybridBinarizer(source, context).getBlackMatrix());
+        }
+    }
+
+    @Test
+    public void stopsAllocatingOnceFrameSizeIsStable() throws Exception {
+        ZXingDecodeContext context = new ZXingDecodeContext();
+        byte[] frame = frame(160, 120);
+        new PooledHybridBinarizer(new RotatedYUVLuminanceSource(frame, 160, 120, 90, 0, 0, 120, 160), context)
+                .getBlackMatrix();
+        long allocations = context.getAllocationCount();
+        for (int i = 0; i < 10; i++) {
+            BitMatrix matrix = new PooledHybridBinarizer(
+                    new RotatedYUVLuminanceSource(frame(160, 120), 160, 120, 90, 0, 0, 120, 160), context)
+                    .getBlackMatrix();
+            assertEquals(120, matrix.getWidth());
+        }
+        assertEquals(allocations, context.getAllocationCount());
+    }
+
+    private LuminanceSource source(int width, int height) {
+        return new PlanarYUVLuminanceSource(frame(width, height), width, height, 0, 0, width, height, false);
+    }
+
+    /** Gradient with noise, flat patches and a few hard edges, so every thresholding branch runs. */
+    private byte[] frame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value;
+                if ((x / 24 + y / 24) % 3 == 0) {
+                    value = 60;
+                } else if ((x / 6) % 2 == 0) {
+                    value = 40 + x * 150 / width + mRandom.nextInt(20);
+                } else {
+                    value = 200 - y * 100 / height + mRandom.nextInt(8);
+                }
+                frame[y * width + x] = (byte) value;
+            }
+        }
+        return frame;
+    }
+}
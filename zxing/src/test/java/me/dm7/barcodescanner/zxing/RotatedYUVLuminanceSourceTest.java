@@ -0,0 +1,229 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares RotatedYUVLuminanceSource with rotating the frame first and wrapping the copy in a
+ * PlanarYUVLuminanceSource.
+ */
+public class RotatedYUVLuminanceSourceTest {
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+    // Odd sizes catch off-by-one errors that even, square-ish frames hide
+    private static final int[][] SIZES = {{37, 23}, {64, 48}, {101, 57}, {16, 91}};
+
+    private final Random mRandom = new Random(7);
+
+    @Test
+    public void fullFrameMatchesRotatedCopy() {
+        for (int[] size : SIZES) {
+            byte[] frame = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                int rotatedWidth = rotation % 180 == 0 ? size[0] : size[1];
+                int rotatedHeight = rotation % 180 == 0 ? size[1] : size[0];
+                assertSameLuminance(describe(size, rotation, 0, 0),
+                        reference(frame, size[0], size[1], rotation, 0, 0, rotatedWidth, rotatedHeight),
+                        new RotatedYUVLuminanceSource(frame, size[0], size[1], rotation,
+                                0, 0, rotatedWidth, rotatedHeight));
+            }
+        }
+    }
+
+    @Test
+    public void cropWindowMatchesRotatedCopy() {
+        for (int[] size : SIZES) {
+            byte[] frame = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                int rotatedWidth = rotation % 180 == 0 ? size[0] : size[1];
+                int rotatedHeight = rotation % 180 == 0 ? size[1] : size[0];
+                for (int i = 0; i < 20; i++) {
+                    int width = 1 + mRandom.nextInt(rotatedWidth);
+                    int height = 1 + mRandom.nextInt(rotatedHeight);
+                    int left = mRandom.nextInt(rotatedWidth - width + 1);
+                    int top = mRandom.nextInt(rotatedHeight - height + 1);
+                    assertSameLuminance(describe(size, rotation, left, top),
+                            reference(frame, size[0], size[1], rotation, left, top, width, height),
+                            new RotatedYUVLuminanceSource(frame, size[0], size[1], rotation,
+                                    left, top, width, height));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cropOfCropMatchesRotatedCopy() {
+        for (int[] size : SIZES) {
+            byte[] frame = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                int rotatedWidth = rotation % 180 == 0 ? size[0] : size[1];
+                int rotatedHeight = rotation % 180 == 0 ? size[1] : size[0];
+                int left = rotatedWidth / 5;
+                int top = rotatedHeight / 7;
+                int width = rotatedWidth - left - 1;
+                int height = rotatedHeight - top - 2;
+                LuminanceSource expected = reference(frame, size[0], size[1], rotation, left, top, width, height)
+                        .crop(1, 2, width - 3, height - 4);
+                LuminanceSource actual = new RotatedYUVLuminanceSource(frame, size[0], size[1], rotation,
+                        left, top, width, height).crop(1, 2, width - 3, height - 4);
+                assertSameLuminance(describe(size, rotation, left, top), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void rotateCounterClockwiseMatchesRotatedMatrix() {
+        for (int[] size : SIZES) {
+            byte[] frame = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                int rotatedWidth = rotation % 180 == 0 ? size[0] : size[1];
+                int rotatedHeight = rotation % 180 == 0 ? size[1] : size[0];
+                int left = rotatedWidth / 4;
+                int top = rotatedHeight / 3;
+                int width = rotatedWidth - left;
+                int height = rotatedHeight - top - 1;
+                RotatedYUVLuminanceSource source = new RotatedYUVLuminanceSource(frame, size[0], size[1],
+                        rotation, left, top, width, height);
+                byte[] matrix = source.getMatrix();
+                // Counter-clockwise, (x, y) moves to (y, width - 1 - x)
+                byte[] expected = new byte[width * height];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        expected[(width - 1 - x) * height + y] = matrix[y * width + x];
+                    }
+                }
+                LuminanceSource rotated = source.rotateCounterClockwise();
+                assertEquals(height, rotated.getWidth());
+                assertEquals(width, rotated.getHeight());
+                assertArrayEquals(describe(size, rotation, left, top), expected,
+                        Arrays.copyOf(rotated.getMatrix(), width * height));
+            }
+        }
+    }
+
+    @Test
+    public void getMatrixWritesIntoLargeEnoughBuffer() {
+        byte[] frame = randomFrame(37, 23);
+        RotatedYUVLuminanceSource source = new RotatedYUVLuminanceSource(frame, 37, 23, 90, 2, 3, 15, 20);
+        byte[] dst = new byte[15 * 20 + 5];
+        assertSame(dst, source.getMatrix(dst));
+        assertArrayEquals(source.getMatrix(), Arrays.copyOf(dst, 15 * 20));
+    }
+
+    @Test
+    public void decodesSameQrCodeAsRotatedCopy() throws Exception {
+        int width = 320;
+        int height = 240;
+        byte[] frame = qrFrame("RotatedYUVLuminanceSourceTest", width, height);
+        for (int rotation : ROTATIONS) {
+            int rotatedWidth = rotation % 180 == 0 ? width : height;
+            int rotatedHeight = rotation % 180 == 0 ? height : width;
+            int left = rotatedWidth / 8;
+            int top = rotatedHeight / 8;
+            int cropWidth = rotatedWidth * 3 / 4;
+            int cropHeight = rotatedHeight * 3 / 4;
+            Result expected = decode(reference(frame, width, height, rotation, left, top, cropWidth, cropHeight));
+            Result actual = decode(new RotatedYUVLuminanceSource(frame, width, height, rotation,
+                    left, top, cropWidth, cropHeight));
+            assertEquals(expected.getText(), actual.getText());
+            assertEquals(expected.getResultPoints().length, actual.getResultPoints().length);
+            for (int i = 0; i < expected.getResultPoints().length; i++) {
+                assertEquals(expected.getResultPoints()[i], actual.getResultPoints()[i]);
+            }
+        }
+    }
+
+    private static void assertSameLuminance(String message, LuminanceSource expected, LuminanceSource actual) {
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        int size = expected.getWidth() * expected.getHeight();
+        assertArrayEquals(message, Arrays.copyOf(expected.getMatrix(), size),
+                Arrays.copyOf(actual.getMatrix(), size));
+        byte[] expectedRow = null;
+        byte[] actualRow = null;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            expectedRow = expected.getRow(y, expectedRow);
+            actualRow = actual.getRow(y, actualRow);
+            assertArrayEquals(message + ", row " + y, Arrays.copyOf(expectedRow, expected.getWidth()),
+                    Arrays.copyOf(actualRow, expected.getWidth()));
+        }
+    }
+
+    private static String describe(int[] size, int rotation, int left, int top) {
+        return size[0] + "x" + size[1] + " rotated by " + rotation + ", crop at " + left + "," + top;
+    }
+
+    /** Rotates the Y plane clockwise the straightforward way and crops the copy. */
+    private static PlanarYUVLuminanceSource reference(byte[] frame, int width, int height, int rotation,
+                                                      int left, int top, int cropWidth, int cropHeight) {
+        byte[] rotated = new byte[width * height];
+        int rotatedWidth = rotation % 180 == 0 ? width : height;
+        int rotatedHeight = rotation % 180 == 0 ? height : width;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                byte value = frame[y * width + x];
+                switch (rotation) {
+                    case 0:
+                        rotated[y * width + x] = value;
+                        break;
+                    case 90:
+                        rotated[x * height + height - 1 - y] = value;
+                        break;
+                    case 180:
+                        rotated[(height - 1 - y) * width + width - 1 - x] = value;
+                        break;
+                    default:
+                        rotated[(width - 1 - x) * height + y] = value;
+                        break;
+                }
+            }
+        }
+        return new PlanarYUVLuminanceSource(rotated, rotatedWidth, rotatedHeight,
+                left, top, cropWidth, cropHeight, false);
+    }
+
+    private byte[] randomFrame(int width, int height) {
+        // NV21: the Y plane followed by interleaved chroma at half resolution
+        byte[] frame = new byte[width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+        mRandom.nextBytes(frame);
+        return frame;
+    }
+
+    private static byte[] qrFrame(String contents, int width, int height) throws Exception {
+        BitMatrix code = new QRCodeWriter().encode(contents, BarcodeFormat.QR_CODE, 150, 150);
+        byte[] frame = new byte[width * height * 3 / 2];
+        Arrays.fill(frame, (byte) 200);
+        int left = (width - code.getWidth()) / 2;
+        int top = (height - code.getHeight()) / 2;
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                if (code.get(x, y)) {
+                    frame[(top + y) * width + left + x] = (byte) 30;
+                }
+            }
+        }
+        return frame;
+    }
+
+    private static Result decode(LuminanceSource source) throws Exception {
+        Result result = new MultiFormatReader().decode(new BinaryBitmap(new HybridBinarizer(source)));
+        assertTrue(result.getText().length() > 0);
+        return result;
+    }
+}